@@ -3,7 +3,7 @@ package com.github.t1.webresource.codec;
 import javax.inject.Inject;
 
 import com.github.t1.webresource.codec.HtmlOut.Attribute;
-import com.github.t1.webresource.meta.Item;
+import com.github.t1.webresource.meta.*;
 
 public class HrefAttribute {
 
@@ -14,6 +14,11 @@ public class HrefAttribute {
         return new Attribute("href", String.valueOf(uriResolver.resolveBase(href(item))));
     }
 
+    /** The link to the item with the <code>expand</code> query parameter for the trait */
+    public Attribute expand(Item item, Trait trait) {
+        return new Attribute("href", String.valueOf(uriResolver.resolveBase(href(item) + "?expand=" + trait.name())));
+    }
+
     private String href(Item item) {
         if (item.isType())
             return item.type();
@@ -4,7 +4,7 @@ import javax.inject.Inject;
 
 import com.github.t1.webresource.codec.HtmlOut.Attribute;
 import com.github.t1.webresource.codec.HtmlOut.Tag;
-import com.github.t1.webresource.meta.Item;
+import com.github.t1.webresource.meta.*;
 
 public class HtmlLinkWriter {
     @Inject
@@ -20,6 +20,13 @@ public class HtmlLinkWriter {
         }
     }
 
+    /** A link to the item with the trait expanded, so the trait itself doesn't have to be loaded */
+    public void writeExpand(Item item, Trait trait, String id) {
+        try (Tag a = out.tag("a", href.expand(item, trait), idAttribute(id), new ClassAttribute(trait))) {
+            out.writeEscapedObject(new FieldName(trait));
+        }
+    }
+
     private Attribute idAttribute(String id) {
         return new Attribute("id", id + "-href");
     }
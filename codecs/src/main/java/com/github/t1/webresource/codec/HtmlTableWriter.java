@@ -49,8 +49,12 @@ public class HtmlTableWriter {
         try (Tag tr = out.tag("tr")) {
             for (Trait trait : traits) {
                 try (Tag td = out.tag("td")) {
-                    Item cellItem = rowItem.read(trait);
                     String id = ids.get(trait);
+                    if (!rowItem.isLoaded(trait)) { // reading it would load it, once for every row
+                        linkWriter.writeExpand(rowItem, trait, id);
+                        continue;
+                    }
+                    Item cellItem = rowItem.read(trait);
                     if (cellItem.isSimple()) {
                         Trait simple = SimpleTrait.of(cellItem);
                         fieldWriter.write(cellItem, simple, id);
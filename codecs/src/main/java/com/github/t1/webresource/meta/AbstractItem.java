@@ -85,6 +85,12 @@ public abstract class AbstractItem implements Item {
         return Items.newItem(value);
     }
 
+    /** Only JPA entities can have lazy traits; see {@link PojoItem} */
+    @Override
+    public boolean isLoaded(Trait trait) {
+        return true;
+    }
+
     @Override
     public void write(Trait trait, Item value) {
         ((AbstractTrait) trait).write(this.object, ((AbstractItem) value).object);
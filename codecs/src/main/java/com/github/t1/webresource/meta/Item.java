@@ -41,6 +41,9 @@ public interface Item {
     /** The value of that trait */
     public Item read(Trait trait);
 
+    /** Is the value of that trait loaded, i.e. can it be {@link #read(Trait) read} without a database query? */
+    public boolean isLoaded(Trait trait);
+
     /** Sets the value of that trait */
     public void write(Trait trait, Item value);
 
@@ -2,6 +2,7 @@ package com.github.t1.webresource.meta;
 
 import java.util.List;
 
+import javax.persistence.*;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import com.github.t1.stereotypes.Annotations;
@@ -24,6 +25,14 @@ class PojoItem extends AbstractItem {
         }
     }
 
+    /** Asks the persistence provider only for entities; if there is no provider, everything is loaded */
+    @Override
+    public boolean isLoaded(Trait trait) {
+        if (!is(Entity.class))
+            return true;
+        return Persistence.getPersistenceUtil().isLoaded(object, trait.name());
+    }
+
     @Override
     public String toString() {
         return object.toString();
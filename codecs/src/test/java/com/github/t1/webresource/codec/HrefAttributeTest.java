@@ -50,4 +50,15 @@ public class HrefAttributeTest {
 
         verify(resolver).resolveBase("strings");
     }
+
+    @Test
+    public void shouldResolveExpand() {
+        Item simpleItem = Items.newItem("simple");
+        Trait trait = mock(Trait.class);
+        when(trait.name()).thenReturn("category");
+
+        href.expand(simpleItem, trait);
+
+        verify(resolver).resolveBase("strings/simple?expand=category");
+    }
 }
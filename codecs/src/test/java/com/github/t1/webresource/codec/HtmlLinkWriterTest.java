@@ -18,6 +18,10 @@ import com.github.t1.webresource.meta.*;
 
 public class HtmlLinkWriterTest extends AbstractHtmlWriterTest {
     private void write(Object pojo) {
+        writer().write(Items.newItem(pojo), "id");
+    }
+
+    private HtmlLinkWriter writer() {
         HrefAttribute href = mock(HrefAttribute.class);
         when(href.to(any(Item.class))).thenAnswer(new Answer<Attribute>() {
             @Override
@@ -31,7 +35,7 @@ public class HtmlLinkWriterTest extends AbstractHtmlWriterTest {
         writer.out = out;
         writer.href = href;
         writer.titleWriter = new HtmlTitleWriter();
-        writer.write(Items.newItem(pojo), "id");
+        return writer;
     }
 
     @Getter
@@ -55,6 +59,18 @@ public class HtmlLinkWriterTest extends AbstractHtmlWriterTest {
         assertEquals("<a href='twostringpojos/one-two' id='id-href' class='twostringpojos'>" + pojo + "</a>", result());
     }
 
+    @Test
+    public void shouldWriteExpandLink() {
+        Item item = Items.newItem(new TwoStringPojo("one", "two"));
+        Trait trait = item.trait("str2");
+        HtmlLinkWriter writer = writer();
+        when(writer.href.expand(item, trait)).thenReturn(new Attribute("href", "twostringpojos/one-two?expand=str2"));
+
+        writer.writeExpand(item, trait, "id");
+
+        assertEquals("<a href='twostringpojos/one-two?expand=str2' id='id-href' class='str2'>str2</a>", result());
+    }
+
     @Getter
     @AllArgsConstructor
     public static class HtmlTitlePojo {
@@ -7,12 +7,52 @@ import static org.mockito.Mockito.*;
 
 import java.util.*;
 
-import org.junit.Test;
+import javax.persistence.*;
+import javax.persistence.spi.*;
+import javax.xml.bind.annotation.*;
+
+import lombok.*;
+
+import org.junit.*;
+import org.mockito.ArgumentCaptor;
 
 import com.github.t1.webresource.meta.*;
 
 public class HtmlTableWriterTest extends AbstractHtmlWriterTest {
+    @Data
+    @AllArgsConstructor
+    @Entity
+    @XmlRootElement
+    @XmlType(propOrder = { "str", "nested" })
+    protected static class ContainerEntity {
+        @Id
+        private String str;
+        private NestedPojo nested;
+    }
+
     HtmlTableWriter writer = new HtmlTableWriter();
+    private final ProviderUtil providerUtil = mock(ProviderUtil.class);
+
+    private void mockPersistenceProvider() {
+        final PersistenceProvider provider = mock(PersistenceProvider.class);
+        when(provider.getProviderUtil()).thenReturn(providerUtil);
+        when(providerUtil.isLoadedWithoutReference(any(), anyString())).thenReturn(LoadState.UNKNOWN);
+        when(providerUtil.isLoadedWithReference(any(), anyString())).thenReturn(LoadState.UNKNOWN);
+        PersistenceProviderResolverHolder.setPersistenceProviderResolver(new PersistenceProviderResolver() {
+            @Override
+            public List<PersistenceProvider> getPersistenceProviders() {
+                return Collections.singletonList(provider);
+            }
+
+            @Override
+            public void clearCachedProviders() {}
+        });
+    }
+
+    @After
+    public void resetPersistenceProvider() {
+        PersistenceProviderResolverHolder.setPersistenceProviderResolver(null);
+    }
 
     private void write(Object t) {
         writer.ids = ids;
@@ -150,4 +190,52 @@ public class HtmlTableWriterTest extends AbstractHtmlWriterTest {
         assertEquals("AbstractHtmlWriterTest.NestedPojo(str=foo, i=123)", allValues.get(0).toString());
         assertEquals("AbstractHtmlWriterTest.NestedPojo(str=bar, i=321)", allValues.get(1).toString());
     }
+
+    @Test
+    public void shouldEncodeTableWithLoadedRelation() {
+        mockPersistenceProvider();
+        writer.linkWriter = mock(HtmlLinkWriter.class);
+        doAnswer(writeDummyAnswer("link")).when(writer.linkWriter).write(any(Item.class), anyString());
+        ContainerEntity entity = new ContainerEntity("dummy", new NestedPojo("foo", 123));
+        when(providerUtil.isLoadedWithoutReference(entity, "nested")).thenReturn(LoadState.LOADED);
+
+        write(asList(entity));
+
+        assertEquals(startTable("str", "nested") //
+                + "<tr><td>{field:dummy}</td><td>{link}</td></tr>" //
+                + endTable(), result());
+        verify(writer.linkWriter).write(captor.capture(), anyString());
+        assertEquals("AbstractHtmlWriterTest.NestedPojo(str=foo, i=123)", captor.getValue().toString());
+    }
+
+    @Test
+    public void shouldEncodeTableWithExpandLinkForUnloadedRelation() {
+        mockPersistenceProvider();
+        writer.linkWriter = mock(HtmlLinkWriter.class);
+        doAnswer(writeDummyAnswer("expand")).when(writer.linkWriter).writeExpand(any(Item.class),
+                any(Trait.class), anyString());
+        ContainerEntity entity = new ContainerEntity("dummy", new NestedPojo("foo", 123));
+        when(providerUtil.isLoadedWithoutReference(entity, "nested")).thenReturn(LoadState.NOT_LOADED);
+
+        write(asList(entity));
+
+        assertEquals(startTable("str", "nested") //
+                + "<tr><td>{field:dummy}</td><td>{expand}</td></tr>" //
+                + endTable(), result());
+        ArgumentCaptor<Trait> trait = ArgumentCaptor.forClass(Trait.class);
+        verify(writer.linkWriter).writeExpand(captor.capture(), trait.capture(), anyString());
+        assertEquals("nested", trait.getValue().name());
+        verify(writer.linkWriter, never()).write(any(Item.class), anyString());
+    }
+
+    @Test
+    public void shouldNotAskPersistenceProviderForPojos() {
+        mockPersistenceProvider();
+        writer.linkWriter = mock(HtmlLinkWriter.class);
+
+        write(asList(new ContainerPojo("dummy", new NestedPojo("foo", 123))));
+
+        verifyZeroInteractions(providerUtil);
+        verify(writer.linkWriter).write(any(Item.class), anyString());
+    }
 }
@@ -0,0 +1,27 @@
+package com.github.t1.webresource;
+
+import javax.transaction.*;
+
+/**
+ * Runs actions only after the current transaction is committed, i.e. when other transactions can see the changes;
+ * e.g. to invalidate a cache: if it's invalidated before the commit, a concurrent read can put the old state back. If
+ * the transaction is rolled back, the actions don't run; if there is no transaction, they run immediately.
+ */
+public class AfterCommit {
+    public static void run(TransactionSynchronizationRegistry registry, final Runnable action) {
+        if (registry == null || registry.getTransactionKey() == null) {
+            action.run();
+            return;
+        }
+        registry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {}
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED)
+                    action.run();
+            }
+        });
+    }
+}
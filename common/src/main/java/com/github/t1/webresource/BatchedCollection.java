@@ -0,0 +1,79 @@
+package com.github.t1.webresource;
+
+import java.util.*;
+
+/**
+ * A read-only collection that fetches its elements lazily in batches of a fixed size while it's iterated, so the
+ * complete result never has to be in memory at once. Used by the generated list method of a
+ * {@link WebResource#streaming() streaming} web resource.
+ * <p/>
+ * The {@link #size()} is only {@link #count() counted}, if somebody asks for it. The batches after the first are
+ * fetched when the iteration reaches them, i.e. usually after the method returning the collection has finished, so
+ * they don't run in the transaction of that method.
+ */
+public abstract class BatchedCollection<T> extends AbstractCollection<T> {
+    private final int batchSize;
+    private List<T> first;
+    private Long count;
+
+    public BatchedCollection(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batch size must be positive but is " + batchSize);
+        this.batchSize = batchSize;
+    }
+
+    /** Fetch at most <code>size</code> elements following the <code>last</code> element, or from the start if null */
+    protected abstract List<T> batch(T last, int size);
+
+    /** Count all elements, i.e. the sum of the sizes of all batches */
+    protected abstract long count();
+
+    private List<T> first() {
+        if (first == null)
+            first = batch(null, batchSize);
+        return first;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private List<T> batch = first();
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (index < batch.size())
+                    return true;
+                if (batch.size() < batchSize)
+                    return false;
+                batch = batch(batch.get(batch.size() - 1), batchSize);
+                index = 0;
+                return !batch.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return batch.get(index++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return first().isEmpty();
+    }
+
+    @Override
+    public int size() {
+        if (count == null)
+            count = count();
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.t1.webresource;
+
+import java.util.*;
+
+/**
+ * The deletions and change notifications for the <code>/changes</code> resource of an entity with a
+ * {@link WebResourceTimestamp}. The changed entities are found by their timestamp, but deleted entities are gone, so
+ * their keys are kept here as tombstones for the retention time, but at most <code>maximumSize</code> of them. Clients
+ * asking for changes before the {@link #oldest()} remaining deletion have to fetch everything again.
+ * <p/>
+ * The timestamps are written before the commit, so a change may become visible only after later changes. To not skip
+ * it, every page ends {@link #until(long) lagging} behind the current time. Deletions and changes are reported after
+ * the commit.
+ * <p/>
+ * A page holds at most the page size of changed entities. A full page ends at the timestamp of its last entity, and
+ * the next page continues with the entities changed at that time with a greater key.
+ * <p/>
+ * The tombstones are kept in memory on the node that deleted the entities. With more than one node, the deletions are
+ * complete only if all deletions and all requests for changes go to the same node. Clients can wait for changes, but
+ * only changes made on this node wake them up early.
+ */
+public class ChangeFeed {
+    /** The maximum number of milliseconds to {@link #await(long, long) wait} for a change */
+    public static final long MAXIMUM_WAIT = 60000;
+    /** The maximum number of deleted keys in one page; they are sent as headers */
+    public static final int MAXIMUM_DELETED = 100;
+
+    private static class Tombstone {
+        private final Object key;
+        private final long deleted;
+
+        public Tombstone(Object key, long deleted) {
+            this.key = key;
+            this.deleted = deleted;
+        }
+    }
+
+    private final long retentionMillis;
+    private final int maximumSize;
+    private final long lagMillis;
+    private final LinkedList<Tombstone> tombstones = new LinkedList<Tombstone>();
+    private long oldest;
+    private long lastChange;
+
+    public ChangeFeed(long retentionMillis, int maximumSize, long lagMillis) {
+        this.retentionMillis = retentionMillis;
+        this.maximumSize = maximumSize;
+        this.lagMillis = lagMillis;
+        this.oldest = now();
+    }
+
+    /** Wake up the clients waiting for changes; call this after the commit */
+    public synchronized void changed() {
+        lastChange = now();
+        notifyAll();
+    }
+
+    /** Remember the key of a deleted entity; call this after the commit */
+    public synchronized void deleted(Object key) {
+        long now = now();
+        tombstones.add(new Tombstone(key, now));
+        expire(now);
+    }
+
+    private void expire(long now) {
+        while (!tombstones.isEmpty()
+                && (tombstones.size() > maximumSize || tombstones.getFirst().deleted <= now - retentionMillis))
+            oldest = tombstones.removeFirst().deleted;
+    }
+
+    /** The time before which deletions may be forgotten */
+    public synchronized long oldest() {
+        expire(now());
+        return oldest;
+    }
+
+    /**
+     * The end of the page of changes after <code>since</code>: the current time minus the lag, or earlier, so the page
+     * contains at most {@link #MAXIMUM_DELETED} deletions, unless more were deleted at the same time; but not before
+     * <code>since</code>.
+     */
+    public synchronized long until(long since) {
+        long until = now() - lagMillis;
+        int count = 0;
+        for (Tombstone tombstone : tombstones) {
+            if (tombstone.deleted <= since)
+                continue;
+            if (tombstone.deleted > until)
+                break;
+            if (++count == MAXIMUM_DELETED) {
+                until = tombstone.deleted;
+                break;
+            }
+        }
+        return Math.max(since, until);
+    }
+
+    /** The keys of the entities deleted after <code>since</code> until <code>until</code>, in the order of deletion */
+    public synchronized List<Object> deleted(long since, long until) {
+        List<Object> result = new ArrayList<Object>();
+        for (Tombstone tombstone : tombstones)
+            if (tombstone.deleted > since && tombstone.deleted <= until)
+                result.add(tombstone.key);
+        return result;
+    }
+
+    /**
+     * Wait until there is a change after <code>since</code> and the lag has passed, so the next page
+     * {@link #until(long) ends} after it; but at most <code>timeoutMillis</code> or {@link #MAXIMUM_WAIT}.
+     * 
+     * @return if there was a change
+     */
+    public synchronized boolean await(long since, long timeoutMillis) {
+        long deadline = now() + Math.min(timeoutMillis, MAXIMUM_WAIT);
+        try {
+            while (lastChange <= since) {
+                long remaining = deadline - now();
+                if (remaining <= 0)
+                    return false;
+                wait(remaining);
+            }
+            long visible = lastChange + lagMillis;
+            for (long delay = visible - now(); delay > 0; delay = visible - now()) {
+                long remaining = deadline - now();
+                if (remaining <= 0)
+                    return false;
+                wait(Math.min(remaining, delay));
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.t1.webresource;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Bounds the number of concurrent calls to the annotated EJB by an adaptive limit; excess calls are answered with
+ * <code>503 Service Unavailable</code>. Generated for the {@link WebResource#concurrencyLimit() concurrency limit} of a
+ * web resource and enforced by the {@link ConcurrencyLimitInterceptor}, which adapts the limit to the latency.
+ */
+@Target({ TYPE })
+@Retention(RUNTIME)
+public @interface ConcurrencyLimit {
+    /** The limit never grows beyond this */
+    public int maximum();
+
+    public int minimum() default 1;
+
+    /** The limit to start with, before there are any latencies to adapt to */
+    public int initial() default 20;
+}
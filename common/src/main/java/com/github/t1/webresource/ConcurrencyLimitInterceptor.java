@@ -0,0 +1,60 @@
+package com.github.t1.webresource;
+
+import static javax.ws.rs.core.Response.Status.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+import javax.interceptor.*;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * Sheds calls exceeding the {@link ConcurrencyLimit} of the EJB class with <code>503 Service Unavailable</code> and a
+ * <code>Retry-After</code> header, instead of letting them wait for a thread or a connection. There's one
+ * {@link ConcurrencyLimiter} per class, adapting to the latency of its successful calls.
+ */
+public class ConcurrencyLimitInterceptor {
+    private static final ConcurrentMap<Class<?>, ConcurrencyLimiter> LIMITERS =
+            new ConcurrentHashMap<Class<?>, ConcurrencyLimiter>();
+
+    private static ConcurrencyLimiter limiter(Class<?> type) {
+        ConcurrencyLimiter limiter = LIMITERS.get(type);
+        if (limiter == null) {
+            ConcurrencyLimit limit = type.getAnnotation(ConcurrencyLimit.class);
+            if (limit == null)
+                throw new IllegalStateException(type.getName() + " is not annotated as @ConcurrencyLimit");
+            LIMITERS.putIfAbsent(type, new ConcurrencyLimiter(limit.initial(), limit.minimum(), limit.maximum()));
+            limiter = LIMITERS.get(type);
+        }
+        return limiter;
+    }
+
+    @AroundInvoke
+    public Object limit(InvocationContext context) throws Exception {
+        Method method = context.getMethod();
+        ConcurrencyLimiter limiter = limiter(method.getDeclaringClass());
+        if (!limiter.tryAcquire())
+            return shed(method);
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            Object result = context.proceed();
+            succeeded = true;
+            return result;
+        } finally {
+            if (succeeded) {
+                limiter.release(System.nanoTime() - start);
+            } else {
+                limiter.release();
+            }
+        }
+    }
+
+    private Object shed(Method method) {
+        Response response = Response.status(SERVICE_UNAVAILABLE).header("Retry-After", 1).build();
+        if (Response.class.equals(method.getReturnType()))
+            return response;
+        throw new WebApplicationException(response);
+    }
+}
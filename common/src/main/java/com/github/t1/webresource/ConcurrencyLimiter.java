@@ -0,0 +1,84 @@
+package com.github.t1.webresource;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of concurrent calls by a gradient of the latency: as long as the recent latency stays close to
+ * the long-term average, the limit grows by a small queue; when the recent latency rises, the limit shrinks by the
+ * ratio of the two, i.e. before the callers pile up. Acquiring is lock-free; only the adjustment is synchronized.
+ */
+public class ConcurrencyLimiter {
+    /** A recent latency of up to this factor of the long-term average still counts as stable */
+    private static final double TOLERANCE = 1.5;
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 600;
+    private static final double SMOOTHING = 0.2;
+
+    private final int minimum;
+    private final int maximum;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    // guarded by this
+    private double estimatedLimit;
+    private double shortLatency;
+    private double longLatency;
+
+    public ConcurrencyLimiter(int initial, int minimum, int maximum) {
+        if (minimum < 1 || maximum < minimum)
+            throw new IllegalArgumentException("invalid limits: minimum " + minimum + ", maximum " + maximum);
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.estimatedLimit = Math.max(minimum, Math.min(maximum, initial));
+        this.limit = (int) estimatedLimit;
+    }
+
+    /** @return <code>false</code> if the limit is reached; otherwise you must {@link #release(long) release} */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit)
+                return false;
+            if (inFlight.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    /** Release without a latency sample, e.g. after a failure */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /** Release and adjust the limit to the latency of the call */
+    public void release(long latencyNanos) {
+        int current = inFlight.getAndDecrement();
+        adjust(latencyNanos, current);
+    }
+
+    private synchronized void adjust(long latency, int current) {
+        if (longLatency == 0) {
+            shortLatency = longLatency = latency;
+        } else {
+            shortLatency += (latency - shortLatency) / SHORT_WINDOW;
+            longLatency += (latency - longLatency) / LONG_WINDOW;
+        }
+        if (longLatency > 2 * shortLatency) // the load has dropped: forget the old latencies faster
+            longLatency *= 0.95;
+        if (current < estimatedLimit / 2) // there's not enough load to tell if a higher limit would do harm
+            return;
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatency / shortLatency));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minimum, Math.min(maximum, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.t1.webresource;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the total number of entities matching a filter for a short time, as exact counts are expensive on big tables
+ * and clients ask for them on every page. Used by the generated list method of a web resource with a
+ * {@link WebResource#countCacheSeconds() count cache}. The number of cached filters is bounded: when it's full,
+ * expired counts are removed, and if that doesn't help, all of them.
+ */
+public class CountCache {
+    private static class Count {
+        private final long value;
+        private final long expires;
+
+        public Count(long value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /** The normalized form of the filter query parameters, i.e. sorted by name and value, without the ignored ones */
+    public static String filter(Map<String, List<String>> params, Collection<String> ignored) {
+        StringBuilder out = new StringBuilder();
+        for (String name : new TreeSet<String>(params.keySet())) {
+            if (ignored.contains(name))
+                continue;
+            List<String> values = new ArrayList<String>(params.get(name));
+            Collections.sort(values);
+            for (String value : values) {
+                if (out.length() > 0)
+                    out.append('&');
+                out.append(name).append('=').append(value);
+            }
+        }
+        return out.toString();
+    }
+
+    private final long ttlMillis;
+    private final int maximumSize;
+    private final Map<String, Count> counts = new ConcurrentHashMap<String, Count>();
+
+    public CountCache(long ttlMillis, int maximumSize) {
+        this.ttlMillis = ttlMillis;
+        this.maximumSize = maximumSize;
+    }
+
+    /** The count for the normalized filter, or <code>null</code> if it's not cached or expired */
+    public Long get(String filter) {
+        Count count = counts.get(filter);
+        if (count == null)
+            return null;
+        if (count.expires <= now()) {
+            counts.remove(filter);
+            return null;
+        }
+        return count.value;
+    }
+
+    public void put(String filter, long value) {
+        if (counts.size() >= maximumSize)
+            sweep();
+        counts.put(filter, new Count(value, now() + ttlMillis));
+    }
+
+    private void sweep() {
+        long now = now();
+        for (Iterator<Count> iter = counts.values().iterator(); iter.hasNext();)
+            if (iter.next().expires <= now)
+                iter.remove();
+        if (counts.size() >= maximumSize)
+            counts.clear();
+    }
+
+    public int size() {
+        return counts.size();
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
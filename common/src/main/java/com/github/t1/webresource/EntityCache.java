@@ -0,0 +1,170 @@
+package com.github.t1.webresource;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.*;
+
+import org.slf4j.*;
+
+/**
+ * A bounded, concurrent cache of detached entities by their REST key, used by the generated resources of a
+ * {@link WebResource#cacheSize() cached} web resource. It's split into segments that are locked separately, each
+ * evicting the least recently used entity when it's full. The counters are registered as an MBean named
+ * <code>com.github.t1.webresource:type=EntityCache,name=...</code> with the fully qualified name of the entity.
+ * <p/>
+ * A read that misses takes a {@link #stamp()} before it loads the entity, and {@link #put(Object, Object, long) puts}
+ * it with that stamp. If the segment was invalidated in between, the entity may be stale and is not cached; otherwise
+ * a concurrent read could put the old state back after the invalidation and it would stay there.
+ */
+public class EntityCache<K, V> implements EntityCacheMBean {
+    private static final Logger log = LoggerFactory.getLogger(EntityCache.class);
+    private static final int SEGMENTS = 16;
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final AtomicLong evictions;
+        private long invalidated;
+
+        public Segment(int capacity, AtomicLong evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() <= capacity)
+                return false;
+            evictions.incrementAndGet();
+            return true;
+        }
+    }
+
+    private final int maximumSize;
+    private final List<Segment<K, V>> segments = new ArrayList<Segment<K, V>>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public EntityCache(String name, int maximumSize) {
+        if (maximumSize < 1)
+            throw new IllegalArgumentException("maximum size must be positive but is " + maximumSize);
+        this.maximumSize = maximumSize;
+        int count = Math.min(SEGMENTS, maximumSize);
+        for (int i = 0; i < count; i++) {
+            // distribute the remainder, so the capacities add up to the maximum size
+            int capacity = maximumSize / count + ((i < maximumSize % count) ? 1 : 0);
+            segments.add(new Segment<K, V>(capacity, evictions));
+        }
+        register(name);
+    }
+
+    private void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("com.github.t1.webresource:type=EntityCache,name=" + name);
+            if (server.isRegistered(objectName)) // e.g. after a redeploy
+                server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("can't register entity cache " + name, e);
+        }
+    }
+
+    private Segment<K, V> segment(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments.get((hash & Integer.MAX_VALUE) % segments.size());
+    }
+
+    /** The cached entity or <code>null</code> */
+    public V get(K key) {
+        Segment<K, V> segment = segment(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /** Take this before loading an entity to {@link #put(Object, Object, long) put} */
+    public long stamp() {
+        return invalidations.get();
+    }
+
+    /** Cache the entity, unless it may have been invalidated after the <code>stamp</code> was taken */
+    public void put(K key, V value, long stamp) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            if (segment.invalidated > stamp)
+                return;
+            segment.put(key, value);
+        }
+    }
+
+    /** Invalidate the entity, e.g. after a change or deletion has been committed */
+    public void remove(K key) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            segment.remove(key);
+            segment.invalidated = invalidations.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.t1.webresource;
+
+/** The JMX view of an {@link EntityCache} */
+public interface EntityCacheMBean {
+    public int getSize();
+
+    public int getMaximumSize();
+
+    public long getHits();
+
+    public long getMisses();
+
+    public long getEvictions();
+
+    public void clear();
+}
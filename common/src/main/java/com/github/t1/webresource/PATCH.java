@@ -0,0 +1,20 @@
+package com.github.t1.webresource;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import javax.ws.rs.HttpMethod;
+
+/**
+ * Indicates that the annotated method responds to HTTP PATCH requests, i.e. partial updates (see RFC 5789). JAX-RS
+ * doesn't define this annotation itself.
+ */
+@Target({ METHOD })
+@Retention(RUNTIME)
+@HttpMethod("PATCH")
+public @interface PATCH {
+    //
+}
@@ -0,0 +1,87 @@
+package com.github.t1.webresource;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free rate limiter per client, equivalent to a token bucket per client that is refilled continuously. It
+ * stores only the theoretical arrival time of the next request for every client (the generic cell rate algorithm), so
+ * a request is a compare-and-set on one number. Clients that have a full bucket again can be forgotten, so the number
+ * of clients stored is bounded. While the maximum number of clients is stored, new clients are not limited: a shared
+ * bucket for them would let one client use up the requests of all others.
+ */
+public class RateLimiter {
+    private final long interval;
+    private final long tolerance;
+    private final int maximumClients;
+    private final ConcurrentMap<String, AtomicLong> arrivals = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    /** Allow <code>requests</code> requests per <code>period</code> per client, also as a burst */
+    public RateLimiter(int requests, long period, TimeUnit unit, int maximumClients) {
+        if (requests < 1)
+            throw new IllegalArgumentException("requests must be positive but is " + requests);
+        this.interval = unit.toNanos(period) / requests;
+        this.tolerance = unit.toNanos(period) - interval;
+        this.maximumClients = maximumClients;
+        this.lastSweep.set(now() - unit.toNanos(period));
+    }
+
+    /**
+     * Count a request of the client.
+     * 
+     * @return <code>0</code> if the request is allowed, or the number of nanoseconds the client has to wait
+     */
+    public long acquire(String client) {
+        long now = now();
+        AtomicLong arrival = arrival(client, now);
+        if (arrival == null)
+            return 0;
+        while (true) {
+            long current = arrival.get();
+            long theoretical = Math.max(current, now);
+            long wait = theoretical - tolerance - now;
+            if (wait > 0)
+                return wait;
+            if (arrival.compareAndSet(current, theoretical + interval))
+                return 0;
+        }
+    }
+
+    /** <code>null</code> if the client is new and the maximum number of clients is stored */
+    private AtomicLong arrival(String client, long now) {
+        AtomicLong arrival = arrivals.get(client);
+        if (arrival != null)
+            return arrival;
+        if (arrivals.size() >= maximumClients) {
+            sweep(now);
+            if (arrivals.size() >= maximumClients)
+                return null;
+        }
+        arrival = new AtomicLong(now);
+        AtomicLong existing = arrivals.putIfAbsent(client, arrival);
+        return (existing == null) ? arrival : existing;
+    }
+
+    /**
+     * Forget the clients with a full bucket, i.e. that would be allowed a complete burst again; but not more often than
+     * once per period, as it has to look at all clients.
+     */
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if (now - last < interval + tolerance || !lastSweep.compareAndSet(last, now))
+            return;
+        for (Iterator<AtomicLong> iter = arrivals.values().iterator(); iter.hasNext();)
+            if (iter.next().get() <= now)
+                iter.remove();
+    }
+
+    public int clients() {
+        return arrivals.size();
+    }
+
+    protected long now() {
+        return System.nanoTime();
+    }
+}
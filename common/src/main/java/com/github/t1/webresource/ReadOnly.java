@@ -0,0 +1,24 @@
+package com.github.t1.webresource;
+
+import javax.persistence.*;
+
+/**
+ * Hints for queries of the generated read methods: the entities are not changed, so the persistence provider doesn't
+ * have to keep a snapshot of their state for dirty checking, and it doesn't have to flush before running the query.
+ * Providers ignore the hints they don't know.
+ */
+public class ReadOnly {
+    public static <T extends Query> T query(T query) {
+        query.setHint("org.hibernate.readOnly", true);
+        query.setHint("eclipselink.read-only", true);
+        query.setFlushMode(FlushModeType.COMMIT);
+        return query;
+    }
+
+    /** A read-only query that fetches <code>fetchSize</code> rows with every JDBC round trip */
+    public static <T extends Query> T query(T query, int fetchSize) {
+        query.setHint("org.hibernate.fetchSize", fetchSize);
+        query.setHint("eclipselink.jdbc.fetch-size", fetchSize);
+        return query(query);
+    }
+}
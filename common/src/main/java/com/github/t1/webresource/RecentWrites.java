@@ -0,0 +1,70 @@
+package com.github.t1.webresource;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the keys of the entities written recently, so a web resource with a {@link WebResource#readUnit() read
+ * unit} can read them from the primary database for a while, until the replicas have caught up; i.e. clients can read
+ * their own writes. Lists are read from the primary while any entity was written recently. The number of remembered
+ * keys is bounded: when it's full, expired keys are removed, and if that doesn't help, all entities count as recently
+ * written for the next window.
+ * <p/>
+ * The writes are only known to this node; use sticky sessions in a cluster.
+ */
+public class RecentWrites {
+    private final long windowMillis;
+    private final int maximumSize;
+    private final Map<Object, Long> expiries = new ConcurrentHashMap<Object, Long>();
+    private volatile long anyExpires;
+    private volatile long allExpires;
+
+    public RecentWrites(long windowMillis, int maximumSize) {
+        this.windowMillis = windowMillis;
+        this.maximumSize = maximumSize;
+    }
+
+    public void written(Object key) {
+        long expires = now() + windowMillis;
+        if (expiries.size() >= maximumSize)
+            sweep(expires);
+        expiries.put(key, expires);
+        anyExpires = expires;
+    }
+
+    private void sweep(long expires) {
+        long now = now();
+        for (Iterator<Long> iter = expiries.values().iterator(); iter.hasNext();)
+            if (iter.next() <= now)
+                iter.remove();
+        if (expiries.size() >= maximumSize) {
+            expiries.clear();
+            allExpires = expires;
+        }
+    }
+
+    /** Was the entity with this key written within the window, or any entity, if the key is <code>null</code> */
+    public boolean isRecent(Object key) {
+        long now = now();
+        if (key == null)
+            return anyExpires > now;
+        if (allExpires > now)
+            return true;
+        Long expires = expiries.get(key);
+        if (expires == null)
+            return false;
+        if (expires <= now) {
+            expiries.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    public int size() {
+        return expiries.size();
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.t1.webresource;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the number of requests every client can make to the annotated resource class; more requests are answered
+ * with <code>429 Too Many Requests</code> and a <code>Retry-After</code> header. Generated for the
+ * {@link WebResource#quota() quota} of a web resource and enforced by the {@link RequestQuotaFeature}.
+ */
+@Target({ TYPE })
+@Retention(RUNTIME)
+public @interface RequestQuota {
+    /** The number of requests a client can make within the {@link #seconds()}, even in a burst */
+    public int requests();
+
+    public int seconds() default 1;
+
+    /**
+     * The header identifying the client, e.g. an API key; if it's empty or missing, the authenticated user or the
+     * remote address is used. The header has to be set by a trusted proxy that replaces any value sent by the client,
+     * e.g. after checking the API key; otherwise a client can send a new value with every request and is never
+     * limited.
+     */
+    public String clientHeader() default "";
+
+    /**
+     * The maximum number of clients the requests are counted for. Clients that could make a full burst again are
+     * forgotten, but while the maximum is reached, new clients are not limited; see {@link RateLimiter}.
+     */
+    public int maximumClients() default 100000;
+}
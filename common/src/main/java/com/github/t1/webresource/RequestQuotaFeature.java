@@ -0,0 +1,29 @@
+package com.github.t1.webresource;
+
+import java.util.concurrent.*;
+
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.ext.Provider;
+
+/** Registers a {@link RequestQuotaFilter} for every resource class annotated as {@link RequestQuota} */
+@Provider
+public class RequestQuotaFeature implements DynamicFeature {
+    /** one filter per class, so all methods of a resource count against the same quota */
+    private final ConcurrentMap<Class<?>, RequestQuotaFilter> filters =
+            new ConcurrentHashMap<Class<?>, RequestQuotaFilter>();
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        Class<?> resourceClass = resourceInfo.getResourceClass();
+        RequestQuota quota = resourceClass.getAnnotation(RequestQuota.class);
+        if (quota == null)
+            return;
+        RequestQuotaFilter filter = filters.get(resourceClass);
+        if (filter == null) {
+            filters.putIfAbsent(resourceClass, new RequestQuotaFilter(quota));
+            filter = filters.get(resourceClass);
+        }
+        context.register(filter);
+    }
+}
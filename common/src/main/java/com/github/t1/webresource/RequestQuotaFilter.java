@@ -0,0 +1,69 @@
+package com.github.t1.webresource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.*;
+import javax.ws.rs.core.Response.Status;
+
+import org.slf4j.*;
+
+/**
+ * Answers requests exceeding the {@link RequestQuota} of a client with <code>429 Too Many Requests</code>. The client
+ * is identified by the {@link RequestQuota#clientHeader() client header}, the authenticated user, or the remote
+ * address, in this order. There is no common quota for unidentified clients, as one of them could use it up for all.
+ * If there is no remote address, e.g. when not running in a servlet container, and no client header is configured, the
+ * quota is not enforced, and a warning is logged.
+ */
+public class RequestQuotaFilter implements ContainerRequestFilter {
+    private static final Logger log = LoggerFactory.getLogger(RequestQuotaFilter.class);
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final String clientHeader;
+    private final RateLimiter limiter;
+    private final AtomicBoolean warned = new AtomicBoolean();
+
+    @Context
+    HttpServletRequest servletRequest;
+
+    public RequestQuotaFilter(RequestQuota quota) {
+        this.clientHeader = quota.clientHeader();
+        this.limiter = new RateLimiter(quota.requests(), quota.seconds(), TimeUnit.SECONDS, quota.maximumClients());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        String client = client(request);
+        if (client == null) {
+            if (!clientHeader.isEmpty()) {
+                request.abortWith(Response.status(Status.BAD_REQUEST).entity("missing header " + clientHeader).build());
+            } else if (warned.compareAndSet(false, true)) {
+                log.warn("can't identify the client for the request quota: "
+                        + "there is no remote address, so configure a client header");
+            }
+            return;
+        }
+        long wait = limiter.acquire(client);
+        if (wait > 0) {
+            long seconds = TimeUnit.NANOSECONDS.toSeconds(wait - 1) + 1; // round up
+            request.abortWith(Response.status(TOO_MANY_REQUESTS).header("Retry-After", seconds).build());
+        }
+    }
+
+    /** <code>null</code> if there is nothing to identify the client */
+    String client(ContainerRequestContext request) {
+        if (!clientHeader.isEmpty()) {
+            String client = request.getHeaderString(clientHeader);
+            if (client != null && !client.isEmpty())
+                return client;
+        }
+        SecurityContext security = request.getSecurityContext();
+        if (security != null && security.getUserPrincipal() != null)
+            return security.getUserPrincipal().getName();
+        if (servletRequest != null)
+            return servletRequest.getRemoteAddr();
+        return null;
+    }
+}
@@ -7,6 +7,14 @@ import java.lang.annotation.Target;
 /**
  * Annotate your {@link javax.persistence.Entity JPA-Entity} and add the generator to your build, and a complete REST
  * boundary will be generated for you. It will be named like the entity with <code>WebResource</code> appended.
+ * <p/>
+ * The list can be filtered with query parameters for the basic attributes of the entity, e.g. <code>?last=Doe</code>
+ * or <code>?age.gt=30</code>. The operators are <code>eq</code> (the default), <code>ne</code>, <code>gt</code>,
+ * <code>ge</code>, <code>lt</code>, <code>le</code>, <code>in</code> (with comma separated values), and
+ * <code>like</code>. Unknown attributes or operators result in a <code>400 Bad Request</code>.
+ * <p/>
+ * The list and the single entities can be reduced to some basic attributes, e.g. <code>?fields=first,last</code>;
+ * only these attributes and the key are selected from the database and returned as maps.
  */
 @Target({ TYPE })
 public @interface WebResource {
@@ -16,4 +24,120 @@ public @interface WebResource {
      * JSON, etc. But it may impact performance and scalability to use extended entity managers.
      */
     public boolean extended() default false;
+
+    /**
+     * The number of entities returned by the list method, if the client doesn't pass a <code>limit</code> query
+     * parameter. Clients can page through the list with the <code>offset</code> or, more efficiently, with the
+     * <code>after</code> query parameter, i.e. the key of the last entity of the previous page; the response contains
+     * the links to the <code>next</code> (and <code>prev</code>) pages in the <code>Link</code> header.
+     */
+    public int pageSize() default 100;
+
+    /**
+     * Should the list method return all entities matching the query parameters, not only one page? They are not
+     * loaded at once, but lazily in {@link #batchSize() batches} while they are written to the response, so the memory
+     * required doesn't depend on the number of entities.
+     * <p/>
+     * Only the first batch is fetched while the list method runs. The others are fetched after it has returned, i.e.
+     * outside of its transaction (or read-only context), each with a query of its own: the result is not a consistent
+     * snapshot, entities changed while streaming may be skipped or show their new state, and the entities are
+     * detached, so lazy relations can't be loaded. The total count is only queried, if the message body writer asks
+     * for the size of the collection.
+     */
+    public boolean streaming() default false;
+
+    /**
+     * The number of entities loaded with one query, e.g. while {@link #streaming() streaming} or for a list of keys
+     * posted to <code>/batch-get</code>, or written with one flush when posting a list of entities to
+     * <code>/bulk</code>. Configure the JDBC batch size of your persistence provider to the same value, so each flush
+     * results in a single batch of inserts. It must not exceed the number of parameters your database allows.
+     */
+    public int batchSize() default 100;
+
+    /**
+     * The number of rows the JDBC driver fetches with every round trip to the database when the generated read methods
+     * load entities, or <code>0</code> for the default of the driver. Some drivers default to fetching all rows at
+     * once, others to only 10, i.e. a list of 100 entities would take 10 round trips.
+     */
+    public int fetchSize() default 0;
+
+    /**
+     * The maximum number of entities to cache by their key, or <code>0</code> to always read them from the database.
+     * Only use this for read-mostly entities that are changed only through the generated web resource, as changes made
+     * otherwise, e.g. on a different node of a cluster, are not visible while the entity is cached. Only entities
+     * without relations are cached, as the cached copy is shared by all requests. The cache statistics are available
+     * with JMX; see {@link EntityCache}.
+     */
+    public int cacheSize() default 0;
+
+    /**
+     * The list method returns the total number of matching entities in the <code>X-Total-Count</code> header, if the
+     * client passes <code>?count=true</code>. As exact counts are expensive, they are cached for this number of seconds
+     * for every filter; <code>0</code> counts every time.
+     */
+    public int countCacheSeconds() default 10;
+
+    /**
+     * Should the requests be processed asynchronously by the EJB container, so the request threads are not blocked
+     * while waiting for the database? The number of requests processed or waiting is limited by {@link #asyncLimit()};
+     * more requests are rejected with <code>503 Service Unavailable</code>, as are requests that are not finished
+     * within the {@link #asyncTimeout()}. Configure the thread pool for asynchronous EJB methods in your container.
+     */
+    public boolean async() default false;
+
+    /** The maximum number of {@link #async() asynchronous} requests processed or waiting at the same time */
+    public int asyncLimit() default 100;
+
+    /** The number of seconds an {@link #async() asynchronous} request may take, before it's answered with a 503 */
+    public int asyncTimeout() default 30;
+
+    /**
+     * The number of requests every client can make within {@link #quotaSeconds()}, or <code>0</code> for no limit. More
+     * requests are answered with <code>429 Too Many Requests</code>; see {@link RequestQuota}.
+     */
+    public int quota() default 0;
+
+    public int quotaSeconds() default 1;
+
+    /**
+     * The header identifying the client for the {@link #quota()}; by default it's the user or the remote address. It
+     * has to be set by a trusted proxy; see {@link RequestQuota#clientHeader()}.
+     */
+    public String quotaClientHeader() default "";
+
+    /** The maximum number of clients the {@link #quota()} is counted for; see {@link RequestQuota#maximumClients()}. */
+    public int quotaMaximumClients() default 100000;
+
+    /**
+     * The maximum number of concurrent calls the adaptive {@link ConcurrencyLimit} can grow to, or <code>0</code> for
+     * no limit. Calls beyond the current limit are answered with <code>503 Service Unavailable</code>.
+     */
+    public int concurrencyLimit() default 0;
+
+    /**
+     * The name of a second persistence unit, e.g. for a read replica of the database, that the generated GET and HEAD
+     * methods read from, or <code>""</code> to read from the primary. Writes always go to the default persistence
+     * unit, so it has to be configured as the default, e.g. with <code>wildfly.jpa.default-unit</code>.
+     */
+    public String readUnit() default "";
+
+    /**
+     * The number of seconds after an entity was written, that it's read from the primary and not from the
+     * {@link #readUnit()}, so clients can read their own writes while the replica catches up; see
+     * {@link RecentWrites}.
+     */
+    public int readYourWritesSeconds() default 5;
+
+    /**
+     * The number of seconds the keys of deleted entities are kept for the <code>/changes</code> resource of an entity
+     * with a {@link WebResourceTimestamp}; see {@link ChangeFeed}. They are kept only in memory on the node that
+     * deleted them, so with more than one node, deletions and <code>/changes</code> have to go to the same node.
+     */
+    public int changesRetentionSeconds() default 3600;
+
+    /**
+     * The number of seconds changes take to show up in the <code>/changes</code> resource: the timestamps are written
+     * before the commit, so changes of transactions that take longer to commit may be missed; see {@link ChangeFeed}.
+     */
+    public int changesLagSeconds() default 5;
 }
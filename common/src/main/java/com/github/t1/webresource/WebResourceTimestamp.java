@@ -0,0 +1,18 @@
+package com.github.t1.webresource;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * The time an entity was last changed, either a {@link java.util.Date} or the milliseconds since the epoch as a
+ * <code>long</code>. The generated web resource sets it on every change it makes, and offers the entities changed
+ * since a point in time at <code>/changes</code>; see {@link ChangeFeed}.
+ */
+@Target({ FIELD })
+@Retention(RUNTIME)
+public @interface WebResourceTimestamp {
+    //
+}
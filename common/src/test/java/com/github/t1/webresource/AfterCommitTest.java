@@ -0,0 +1,56 @@
+package com.github.t1.webresource;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import javax.transaction.*;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class AfterCommitTest {
+    private final TransactionSynchronizationRegistry registry = mock(TransactionSynchronizationRegistry.class);
+    private int runs = 0;
+
+    private final Runnable action = new Runnable() {
+        @Override
+        public void run() {
+            runs++;
+        }
+    };
+
+    private Synchronization registered() {
+        ArgumentCaptor<Synchronization> captor = ArgumentCaptor.forClass(Synchronization.class);
+        verify(registry).registerInterposedSynchronization(captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    public void shouldRunWithoutTransaction() {
+        AfterCommit.run(registry, action);
+
+        assertEquals(1, runs);
+        verify(registry, never()).registerInterposedSynchronization(any(Synchronization.class));
+    }
+
+    @Test
+    public void shouldRunAfterCommit() {
+        when(registry.getTransactionKey()).thenReturn("tx");
+
+        AfterCommit.run(registry, action);
+        assertEquals(0, runs);
+        registered().afterCompletion(Status.STATUS_COMMITTED);
+
+        assertEquals(1, runs);
+    }
+
+    @Test
+    public void shouldNotRunAfterRollback() {
+        when(registry.getTransactionKey()).thenReturn("tx");
+
+        AfterCommit.run(registry, action);
+        registered().afterCompletion(Status.STATUS_ROLLEDBACK);
+
+        assertEquals(0, runs);
+    }
+}
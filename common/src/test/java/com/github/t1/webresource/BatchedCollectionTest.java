@@ -0,0 +1,72 @@
+package com.github.t1.webresource;
+
+import static java.util.Arrays.*;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class BatchedCollectionTest {
+    private final List<String> fetched = new ArrayList<String>();
+
+    private Collection<Integer> batched(final int count, int batchSize) {
+        return new BatchedCollection<Integer>(batchSize) {
+            @Override
+            protected List<Integer> batch(Integer last, int size) {
+                fetched.add(last + "/" + size);
+                List<Integer> result = new ArrayList<Integer>();
+                for (int i = (last == null) ? 0 : last + 1; i < count && result.size() < size; i++)
+                    result.add(i);
+                return result;
+            }
+
+            @Override
+            protected long count() {
+                fetched.add("count");
+                return count;
+            }
+        };
+    }
+
+    @Test
+    public void shouldIterateInBatches() {
+        List<Integer> list = new ArrayList<Integer>(batched(5, 2));
+
+        assertEquals(asList(0, 1, 2, 3, 4), list);
+        assertEquals(asList("count", "null/2", "1/2", "3/2"), fetched);
+    }
+
+    @Test
+    public void shouldStopAfterFullLastBatch() {
+        List<Integer> list = new ArrayList<Integer>();
+        for (Integer i : batched(4, 2))
+            list.add(i);
+
+        assertEquals(asList(0, 1, 2, 3), list);
+        assertEquals(asList("null/2", "1/2", "3/2"), fetched);
+    }
+
+    @Test
+    public void shouldFetchNextBatchOnlyWhenTheIterationReachesIt() {
+        Iterator<Integer> iterator = batched(5, 2).iterator();
+        assertEquals(asList("null/2"), fetched);
+
+        assertEquals(0, (int) iterator.next());
+        assertEquals(1, (int) iterator.next());
+        assertEquals(asList("null/2"), fetched);
+        assertEquals(2, (int) iterator.next());
+        assertEquals(asList("null/2", "1/2"), fetched);
+    }
+
+    @Test
+    public void shouldBeEmptyWithoutCounting() {
+        assertTrue(batched(0, 2).isEmpty());
+        assertEquals(asList("null/2"), fetched);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailWithoutBatchSize() {
+        batched(1, 0);
+    }
+}
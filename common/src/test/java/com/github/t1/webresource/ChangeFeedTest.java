@@ -0,0 +1,134 @@
+package com.github.t1.webresource;
+
+import static java.util.Arrays.*;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ChangeFeedTest {
+    private long now = 1000;
+
+    private ChangeFeed feed(long retentionMillis, int maximumSize, long lagMillis) {
+        return new ChangeFeed(retentionMillis, maximumSize, lagMillis) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+    private final ChangeFeed feed = feed(100, 2, 5);
+
+    @Test
+    public void shouldListDeletedBetween() {
+        feed.deleted("a");
+        now += 10;
+        feed.deleted("b");
+
+        assertEquals(asList("a", "b"), feed.deleted(999, 1010));
+        assertEquals(asList("b"), feed.deleted(1000, 1010));
+        assertEquals(asList("a"), feed.deleted(999, 1009));
+        assertEquals(Collections.emptyList(), feed.deleted(1010, 1020));
+    }
+
+    @Test
+    public void shouldStartWithCreationAsOldest() {
+        assertEquals(1000, feed.oldest());
+    }
+
+    @Test
+    public void shouldExpireTombstones() {
+        feed.deleted("a");
+        now += 50;
+        feed.deleted("b");
+        now += 50;
+
+        assertEquals(1000, feed.oldest());
+        assertEquals(asList("b"), feed.deleted(0, now));
+    }
+
+    @Test
+    public void shouldForgetOldestTombstoneWhenFull() {
+        feed.deleted("a");
+        now += 10;
+        feed.deleted("b");
+        now += 10;
+        feed.deleted("c");
+
+        assertEquals(1000, feed.oldest());
+        assertEquals(asList("b", "c"), feed.deleted(0, now));
+    }
+
+    @Test
+    public void shouldEndPageLaggingBehind() {
+        assertEquals(995, feed.until(0));
+    }
+
+    @Test
+    public void shouldNotEndPageBeforeSince() {
+        assertEquals(999, feed.until(999));
+    }
+
+    @Test
+    public void shouldEndPageAtMaximumDeleted() {
+        ChangeFeed large = feed(1000, 1000, 0);
+        for (int i = 0; i < ChangeFeed.MAXIMUM_DELETED + 50; i++) {
+            now++;
+            large.deleted(i);
+        }
+
+        long until = large.until(1000);
+
+        assertEquals(1000 + ChangeFeed.MAXIMUM_DELETED, until);
+        assertEquals(ChangeFeed.MAXIMUM_DELETED, large.deleted(1000, until).size());
+        assertEquals(50, large.deleted(until, large.until(until)).size());
+    }
+
+    @Test
+    public void shouldNotWaitForPreviousChange() {
+        feed.changed();
+        now += 5;
+
+        assertTrue(feed.await(999, 1000));
+    }
+
+    @Test
+    public void shouldTimeOutWithoutChange() {
+        ChangeFeed realTime = new ChangeFeed(100, 2, 0);
+        long start = System.currentTimeMillis();
+
+        assertFalse(realTime.await(start, 10));
+        assertTrue(System.currentTimeMillis() - start >= 10);
+    }
+
+    @Test
+    public void shouldWaitForLagAfterChange() {
+        ChangeFeed realTime = new ChangeFeed(100, 2, 10);
+        long start = System.currentTimeMillis();
+        realTime.changed();
+
+        assertTrue(realTime.await(start - 1, 1000));
+        assertTrue(System.currentTimeMillis() - start >= 10);
+    }
+
+    @Test
+    public void shouldWakeUpOnChange() throws Exception {
+        final ChangeFeed realTime = new ChangeFeed(100, 2, 0);
+        long since = System.currentTimeMillis() - 1;
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    // just continue
+                }
+                realTime.changed();
+            }
+        }.start();
+
+        assertTrue(realTime.await(since, 10000));
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.t1.webresource;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+    private ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 2, 100);
+
+    /** acquire as many as possible and release them all with the same latency */
+    private void fullLoad(int rounds, long latency) {
+        for (int round = 0; round < rounds; round++) {
+            int acquired = 0;
+            while (limiter.tryAcquire())
+                acquired++;
+            for (int i = 0; i < acquired; i++)
+                limiter.release(latency);
+        }
+    }
+
+    @Test
+    public void shouldRejectBeyondLimit() {
+        for (int i = 0; i < 10; i++)
+            assertTrue(limiter.tryAcquire());
+
+        assertFalse(limiter.tryAcquire());
+        assertEquals(10, limiter.inFlight());
+    }
+
+    @Test
+    public void shouldAcceptAfterRelease() {
+        for (int i = 0; i < 10; i++)
+            limiter.tryAcquire();
+
+        limiter.release();
+
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void shouldGrowWhileLatencyIsStable() {
+        fullLoad(10, 1000);
+
+        assertTrue("limit " + limiter.limit(), limiter.limit() > 10);
+    }
+
+    @Test
+    public void shouldNotGrowBeyondMaximum() {
+        fullLoad(100, 1000);
+
+        assertEquals(100, limiter.limit());
+    }
+
+    @Test
+    public void shouldShrinkWhenLatencyRises() {
+        fullLoad(20, 1000);
+        int stable = limiter.limit();
+
+        fullLoad(10, 5000);
+
+        assertTrue("limit " + limiter.limit() + " < " + stable, limiter.limit() < stable);
+    }
+
+    @Test
+    public void shouldNotShrinkBelowMinimum() {
+        limiter = new ConcurrencyLimiter(10, 8, 100);
+        fullLoad(5, 1000);
+
+        fullLoad(5, 1000000);
+
+        assertEquals(8, limiter.limit());
+    }
+
+    @Test
+    public void shouldNotGrowWithoutLoad() {
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.release(1000);
+        }
+
+        assertEquals(10, limiter.limit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailForMaximumBelowMinimum() {
+        new ConcurrencyLimiter(10, 5, 4);
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.t1.webresource;
+
+import static java.util.Arrays.*;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class CountCacheTest {
+    private long now = 1000;
+
+    private final CountCache cache = new CountCache(100, 2) {
+        @Override
+        protected long now() {
+            return now;
+        }
+    };
+
+    @Test
+    public void shouldNormalizeFilter() {
+        Map<String, List<String>> params = new LinkedHashMap<String, List<String>>();
+        params.put("b", asList("2", "1"));
+        params.put("limit", asList("10"));
+        params.put("a", asList("3"));
+
+        assertEquals("a=3&b=1&b=2", CountCache.filter(params, asList("limit", "offset")));
+    }
+
+    @Test
+    public void shouldCacheCount() {
+        cache.put("a=1", 42);
+
+        assertEquals((Long) 42L, cache.get("a=1"));
+        assertNull(cache.get("a=2"));
+    }
+
+    @Test
+    public void shouldExpireCount() {
+        cache.put("a=1", 42);
+        now += 100;
+
+        assertNull(cache.get("a=1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldSweepExpiredWhenFull() {
+        cache.put("a=1", 1);
+        now += 50;
+        cache.put("a=2", 2);
+        now += 50;
+        cache.put("a=3", 3);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a=1"));
+        assertEquals((Long) 2L, cache.get("a=2"));
+        assertEquals((Long) 3L, cache.get("a=3"));
+    }
+
+    @Test
+    public void shouldClearWhenFullAndNothingExpired() {
+        cache.put("a=1", 1);
+        cache.put("a=2", 2);
+        cache.put("a=3", 3);
+
+        assertEquals(1, cache.size());
+        assertEquals((Long) 3L, cache.get("a=3"));
+    }
+}
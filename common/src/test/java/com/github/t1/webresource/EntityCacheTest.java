@@ -0,0 +1,98 @@
+package com.github.t1.webresource;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class EntityCacheTest {
+    /** 16 segments with 2 entries each; small Integer keys with the same remainder of 16 share a segment */
+    private final EntityCache<Integer, String> cache = new EntityCache<Integer, String>("test", 32);
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+        cache.put(1, "one");
+
+        assertEquals("one", cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() {
+        cache.put(0, "zero");
+        cache.put(16, "sixteen");
+        cache.get(0);
+        cache.put(32, "thirty-two");
+
+        assertEquals("zero", cache.get(0));
+        assertNull(cache.get(16));
+        assertEquals("thirty-two", cache.get(32));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void shouldNotExceedMaximumSize() {
+        for (int i = 0; i < 100; i++)
+            cache.put(i, Integer.toString(i));
+
+        assertEquals(32, cache.getSize());
+        assertEquals(68, cache.getEvictions());
+    }
+
+    @Test
+    public void shouldRemove() {
+        cache.put(1, "one");
+
+        cache.remove(1);
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void shouldPutLoadedBeforeInvalidation() {
+        long stamp = cache.stamp();
+
+        cache.put(1, "one", stamp);
+
+        assertEquals("one", cache.get(1));
+    }
+
+    @Test
+    public void shouldNotPutLoadedBeforeInvalidation() {
+        long stamp = cache.stamp();
+        cache.remove(1);
+
+        cache.put(1, "stale", stamp);
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void shouldPutLoadedAfterInvalidation() {
+        cache.remove(1);
+        long stamp = cache.stamp();
+
+        cache.put(1, "one", stamp);
+
+        assertEquals("one", cache.get(1));
+    }
+
+    @Test
+    public void shouldRegisterMBean() throws Exception {
+        ObjectName name = new ObjectName("com.github.t1.webresource:type=EntityCache,name=test");
+        cache.put(1, "one");
+
+        assertEquals(1, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Size"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailForNonPositiveSize() {
+        new EntityCache<Integer, String>("invalid", 0);
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.t1.webresource;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+    private long now = SECONDS.toNanos(100);
+
+    private RateLimiter limiter(int requests, int maximumClients) {
+        return new RateLimiter(requests, 1, SECONDS, maximumClients) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void shouldAllowBurst() {
+        RateLimiter limiter = limiter(3, 10);
+
+        assertEquals(0, limiter.acquire("a"));
+        assertEquals(0, limiter.acquire("a"));
+        assertEquals(0, limiter.acquire("a"));
+        assertEquals(SECONDS.toNanos(1) / 3, limiter.acquire("a"), 2);
+    }
+
+    @Test
+    public void shouldRefillContinuously() {
+        RateLimiter limiter = limiter(2, 10);
+        limiter.acquire("a");
+        limiter.acquire("a");
+
+        now += MILLISECONDS.toNanos(500);
+
+        assertEquals(0, limiter.acquire("a"));
+        assertTrue(limiter.acquire("a") > 0);
+    }
+
+    @Test
+    public void shouldLimitClientsSeparately() {
+        RateLimiter limiter = limiter(1, 10);
+
+        assertEquals(0, limiter.acquire("a"));
+        assertEquals(0, limiter.acquire("b"));
+        assertTrue(limiter.acquire("a") > 0);
+    }
+
+    @Test
+    public void shouldForgetClientsWithFullBucket() {
+        RateLimiter limiter = limiter(1, 2);
+        limiter.acquire("a");
+        limiter.acquire("b");
+
+        now += SECONDS.toNanos(1);
+        limiter.acquire("c");
+
+        assertEquals(1, limiter.clients());
+    }
+
+    @Test
+    public void shouldNotLimitNewClientsWhenFull() {
+        RateLimiter limiter = limiter(1, 2);
+        limiter.acquire("a");
+        limiter.acquire("b");
+
+        assertEquals(0, limiter.acquire("c"));
+        assertEquals(0, limiter.acquire("c"));
+        assertEquals(0, limiter.acquire("d"));
+        assertTrue(limiter.acquire("a") > 0);
+        assertEquals(2, limiter.clients());
+    }
+}
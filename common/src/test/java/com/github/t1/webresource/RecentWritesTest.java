@@ -0,0 +1,69 @@
+package com.github.t1.webresource;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RecentWritesTest {
+    private long now = 1000;
+
+    private final RecentWrites writes = new RecentWrites(100, 2) {
+        @Override
+        protected long now() {
+            return now;
+        }
+    };
+
+    @Test
+    public void shouldNotBeRecentWithoutWrites() {
+        assertFalse(writes.isRecent(1L));
+        assertFalse(writes.isRecent(null));
+    }
+
+    @Test
+    public void shouldBeRecentWithinWindow() {
+        writes.written(1L);
+        now += 99;
+
+        assertTrue(writes.isRecent(1L));
+        assertFalse(writes.isRecent(2L));
+        assertTrue(writes.isRecent(null));
+    }
+
+    @Test
+    public void shouldExpireAfterWindow() {
+        writes.written(1L);
+        now += 100;
+
+        assertFalse(writes.isRecent(1L));
+        assertFalse(writes.isRecent(null));
+        assertEquals(0, writes.size());
+    }
+
+    @Test
+    public void shouldSweepExpiredWhenFull() {
+        writes.written(1L);
+        now += 50;
+        writes.written(2L);
+        now += 50;
+        writes.written(3L);
+
+        assertEquals(2, writes.size());
+        assertFalse(writes.isRecent(1L));
+        assertTrue(writes.isRecent(2L));
+        assertTrue(writes.isRecent(3L));
+    }
+
+    @Test
+    public void shouldTreatAllAsRecentWhenFullAndNothingExpired() {
+        writes.written(1L);
+        writes.written(2L);
+        writes.written(3L);
+
+        assertEquals(1, writes.size());
+        assertTrue(writes.isRecent(1L));
+        assertTrue(writes.isRecent(4L));
+        now += 100;
+        assertFalse(writes.isRecent(4L));
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.t1.webresource;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.security.Principal;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.*;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class RequestQuotaFilterTest {
+    @RequestQuota(requests = 1, seconds = 60)
+    private static class ByAddress {}
+
+    @RequestQuota(requests = 1, seconds = 60, clientHeader = "X-Client")
+    private static class ByHeader {}
+
+    @RequestQuota(requests = 1, seconds = 60, maximumClients = 1)
+    private static class OneClient {}
+
+    private final ContainerRequestContext request = mock(ContainerRequestContext.class);
+    private final HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+
+    private RequestQuotaFilter filter(Class<?> resource, boolean servlet) {
+        RequestQuotaFilter filter = new RequestQuotaFilter(resource.getAnnotation(RequestQuota.class));
+        if (servlet)
+            filter.servletRequest = servletRequest;
+        return filter;
+    }
+
+    private void givenUser(String name) {
+        Principal principal = mock(Principal.class);
+        when(principal.getName()).thenReturn(name);
+        SecurityContext security = mock(SecurityContext.class);
+        when(security.getUserPrincipal()).thenReturn(principal);
+        when(request.getSecurityContext()).thenReturn(security);
+    }
+
+    private Response aborted() {
+        ArgumentCaptor<Response> captor = ArgumentCaptor.forClass(Response.class);
+        verify(request).abortWith(captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    public void shouldIdentifyClientByHeader() {
+        when(request.getHeaderString("X-Client")).thenReturn("key");
+        givenUser("user");
+        when(servletRequest.getRemoteAddr()).thenReturn("10.0.0.1");
+
+        assertEquals("key", filter(ByHeader.class, true).client(request));
+    }
+
+    @Test
+    public void shouldIdentifyClientByUserWithoutHeader() {
+        givenUser("user");
+        when(servletRequest.getRemoteAddr()).thenReturn("10.0.0.1");
+
+        assertEquals("user", filter(ByHeader.class, true).client(request));
+    }
+
+    @Test
+    public void shouldIdentifyClientByRemoteAddress() {
+        when(servletRequest.getRemoteAddr()).thenReturn("10.0.0.1");
+
+        assertEquals("10.0.0.1", filter(ByAddress.class, true).client(request));
+    }
+
+    @Test
+    public void shouldNotLimitWithoutRemoteAddress() {
+        RequestQuotaFilter filter = filter(ByAddress.class, false);
+
+        filter.filter(request);
+        filter.filter(request);
+
+        verify(request, never()).abortWith(any(Response.class));
+    }
+
+    @Test
+    public void shouldRejectMissingHeaderWithoutRemoteAddress() {
+        filter(ByHeader.class, false).filter(request);
+
+        assertEquals(400, aborted().getStatus());
+    }
+
+    @Test
+    public void shouldAnswerTooManyRequestsWithRetryAfter() {
+        when(servletRequest.getRemoteAddr()).thenReturn("10.0.0.1");
+        RequestQuotaFilter filter = filter(ByAddress.class, true);
+
+        filter.filter(request);
+        verify(request, never()).abortWith(any(Response.class));
+        filter.filter(request);
+
+        Response response = aborted();
+        assertEquals(429, response.getStatus());
+        assertEquals(60L, response.getMetadata().getFirst("Retry-After"));
+    }
+
+    @Test
+    public void shouldNotLimitClientsBeyondMaximum() {
+        when(servletRequest.getRemoteAddr()).thenReturn("10.0.0.1", "10.0.0.2", "10.0.0.2");
+        RequestQuotaFilter filter = filter(OneClient.class, true);
+
+        filter.filter(request);
+        filter.filter(request);
+        filter.filter(request);
+
+        verify(request, never()).abortWith(any(Response.class));
+    }
+
+    @Test
+    public void shouldCountClientsSeparately() {
+        when(servletRequest.getRemoteAddr()).thenReturn("10.0.0.1", "10.0.0.2");
+        RequestQuotaFilter filter = filter(ByAddress.class, true);
+
+        filter.filter(request);
+        filter.filter(request);
+
+        verify(request, never()).abortWith(any(Response.class));
+    }
+}
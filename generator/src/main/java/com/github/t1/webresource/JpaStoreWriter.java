@@ -1,6 +1,7 @@
 package com.github.t1.webresource;
 
 import java.io.PrintWriter;
+import java.util.*;
 
 import javax.persistence.*;
 
@@ -14,45 +15,402 @@ public class JpaStoreWriter {
         this.type = type;
     }
 
+    /**
+     * The JPQL strings are constants, so the persistence provider can parse and plan them once and then find them in
+     * its query plan cache.
+     */
     public void declare(ClassBuilder typeWriter) {
+        jpql(typeWriter, "LIST", "SELECT e FROM " + type.entityName + " e ORDER BY e." + type.key.name);
+        jpql(typeWriter, "LIST_AFTER", "SELECT e FROM " + type.entityName + " e WHERE e." + type.key.name
+                + " > :after ORDER BY e." + type.key.name);
+        if (!type.primary())
+            jpql(typeWriter, "FIND_BY_KEY", "SELECT e FROM " + type.entityName + " e WHERE e." + type.key.name
+                    + " = :key");
+        if (type.version != null)
+            jpql(typeWriter, "FIND_VERSION", "SELECT e." + type.version.name + " FROM " + type.entityName
+                    + " e WHERE e." + type.key.name + " = :key");
+        else
+            jpql(typeWriter, "COUNT_BY_KEY", "SELECT COUNT(e) FROM " + type.entityName + " e WHERE e."
+                    + type.key.name + " = :key");
+        jpql(typeWriter, "FIND_BY_KEYS", "SELECT e FROM " + type.entityName + " e WHERE e." + type.key.name
+                + " IN :keys");
+        if (canUpdateByKey())
+            jpql(typeWriter, "UPDATE_BY_KEY", updateByKey());
+        if (type.timestamp != null)
+            jpql(typeWriter, "FIND_TIMESTAMP", "SELECT e." + type.timestamp.name + " FROM " + type.entityName
+                    + " e WHERE e." + type.key.name + " = :key");
+        if (type.timestamp != null) {
+            String timestamp = "e." + type.timestamp.name;
+            String key = "e." + type.key.name;
+            String order = " ORDER BY " + timestamp + ", " + key;
+            jpql(typeWriter, "CHANGED_BETWEEN", "SELECT e FROM " + type.entityName + " e WHERE " + timestamp
+                    + " > :since AND " + timestamp + " <= :until" + order);
+            jpql(typeWriter, "CHANGED_AFTER", "SELECT e FROM " + type.entityName + " e WHERE (" + timestamp
+                    + " > :since OR " + timestamp + " = :since AND " + key + " > :after) AND " + timestamp
+                    + " <= :until" + order);
+        }
+        if (canTouchByKey())
+            jpql(typeWriter, "TOUCH_BY_KEY", touchByKey());
+        if (canDeleteByKey())
+            jpql(typeWriter, "DELETE_BY_KEY", "DELETE FROM " + type.entityName + " e WHERE e." + type.key.name
+                    + " = :key");
+        for (WebResourceField subresource : type.subResourceFields) {
+            if (!subresource.type.isCollection)
+                continue;
+            String join = " FROM " + type.entityName + " e JOIN e." + subresource.name + " s WHERE e."
+                    + type.key.name + " = :key";
+            // JPQL can only order by state fields, i.e. not by basic elements
+            String elementId = subresource.elementId();
+            String order = (elementId == null) ? "" : " ORDER BY s." + elementId;
+            jpql(typeWriter, "LIST_" + subresource.name.toUpperCase(), "SELECT s" + join + order);
+            jpql(typeWriter, "COUNT_" + subresource.name.toUpperCase(), "SELECT COUNT(s)" + join);
+        }
+
+        typeWriter.using(ReadOnly.class);
+
         FieldBuilder field = typeWriter.field(EntityManager.class, "em");
         AnnotationBuilder annotation = field.annotate(PersistenceContext.class);
         if (type.extended) {
             annotation.type(PersistenceContextType.EXTENDED);
         }
+        if (replicated())
+            typeWriter.field(EntityManager.class, "replica").annotate(PersistenceContext.class)
+                    .parameter("unitName", type.readUnit);
+    }
+
+    /** Do the read methods use a replica, i.e. do the helper methods get the entity manager to use */
+    public boolean replicated() {
+        return !type.readUnit.isEmpty();
+    }
+
+    /** The first argument to call a helper method with: the entity manager, if there is a choice */
+    public String em() {
+        return replicated() ? "em, " : "";
+    }
+
+    public void entityManagerParameter(MethodBuilder method) {
+        if (replicated())
+            method.parameter(EntityManager.class, "em");
+    }
+
+    private void jpql(ClassBuilder typeWriter, String name, String jpql) {
+        typeWriter.field(new TypeString("java.lang.String"), name).static_().final_().init("\"" + jpql + "\"");
+    }
+
+    static boolean isTimestamp(WebResourceField field) {
+        return Arrays.asList("java.util.Date", "long", "java.lang.Long").contains(field.type.raw);
+    }
+
+    private boolean isDate() {
+        return "java.util.Date".equals(type.timestamp.type.raw);
+    }
+
+    private String now() {
+        return isDate() ? "new Date()" : "System.currentTimeMillis()";
+    }
+
+    /** the additional argument to set a query parameter to a timestamp */
+    private String temporal() {
+        return isDate() ? ", TemporalType.TIMESTAMP" : "";
+    }
+
+    /** Set the timestamp of the entity, if there is one, to now */
+    public void touch(PrintWriter body, String variableName) {
+        if (type.timestamp != null)
+            body.println(variableName + "." + type.timestamp.setter() + "(" + now() + ");");
+    }
+
+    /**
+     * at most <code>maximum</code> entities changed after <code>since</code> until <code>until</code>, ordered by
+     * their timestamp and key; if there is an <code>after</code> key, the entities changed at <code>since</code> with
+     * a greater key are included, to continue a full page
+     */
+    public void changedBetween(PrintWriter body, int maximum) {
+        String since = isDate() ? "new Date(since)" : "since";
+        String until = isDate() ? "new Date(until)" : "until";
+        body.println("TypedQuery<" + type.simple + "> query = (after == null) ? em.createQuery(CHANGED_BETWEEN, "
+                + type.simple + ".class)");
+        body.println("        : em.createQuery(CHANGED_AFTER, " + type.simple
+                + ".class).setParameter(\"after\", after);");
+        body.println("return " + readOnly("query") + ".setParameter(\"since\", " + since + temporal() + ")");
+        body.println("        .setParameter(\"until\", " + until + temporal() + ").setMaxResults(" + maximum
+                + ").getResultList();");
+    }
+
+    /** the entities of queries in read methods are not changed, so the provider doesn't have to track them */
+    private String readOnly(String query) {
+        return "ReadOnly.query(" + query + ((type.fetchSize > 0) ? ", " + type.fetchSize : "") + ")";
     }
 
     public void list(PrintWriter body) {
+        body.println("List<" + type.simple + "> list = " + readOnly("query")
+                + ".setFirstResult(offset).setMaxResults(limit + 1).getResultList();");
+    }
+
+    /** the criteria query for the list filtered by the query params, ordered by the key, optionally after a key */
+    public void listQuery(PrintWriter body) {
+        body.println("if (RESERVED_QUERY_PARAMS.containsAll(queryParams.keySet())) {");
+        body.println("    if (after == null)");
+        body.println("        return em.createQuery(LIST, " + type.simple + ".class);");
+        body.println("    return em.createQuery(LIST_AFTER, " + type.simple
+                + ".class).setParameter(\"after\", after);");
+        body.println("}");
         body.println("CriteriaBuilder builder = em.getCriteriaBuilder();");
         body.println("CriteriaQuery<" + type.simple + "> query = builder.createQuery(" + type.simple + ".class);");
         body.println("Root<" + type.simple + "> from = query.from(" + type.simple + ".class);");
-        body.println("Predicate where = null;");
-        body.println("for (String key : queryParams.keySet()) {");
-        body.println("    Predicate predicate = builder.equal(from.get(key), queryParams.getFirst(key));");
-        body.println("    if (where == null) {");
-        body.println("        where = predicate;");
-        body.println("    } else {");
-        body.println("        where = builder.and(where, predicate);");
-        body.println("    }");
+        body.println("List<Predicate> where = where(builder, from, queryParams);");
+        body.println("if (after != null)");
+        body.println("    where.add(builder.greaterThan(from.<" + type.key.type.boxed().simple + "> get(\""
+                + type.key.name + "\"), after));");
+        body.println("query.where(where.toArray(new Predicate[where.size()]));");
+        body.println("query.orderBy(builder.asc(from.get(\"" + type.key.name + "\")));");
+        body.println("return em.createQuery(query.select(from));");
+    }
+
+    /** the tuple query for the selected fields of one page of the list, like the list query */
+    public void listFields(PrintWriter body) {
+        body.println("CriteriaBuilder builder = em.getCriteriaBuilder();");
+        body.println("CriteriaQuery<Tuple> query = builder.createTupleQuery();");
+        body.println("Root<" + type.simple + "> from = query.from(" + type.simple + ".class);");
+        body.println("select(query, from, fields);");
+        body.println("List<Predicate> where = where(builder, from, queryParams);");
+        body.println("if (after != null)");
+        body.println("    where.add(builder.greaterThan(from.<" + type.key.type.boxed().simple + "> get(\""
+                + type.key.name + "\"), after));");
+        body.println("query.where(where.toArray(new Predicate[where.size()]));");
+        body.println("query.orderBy(builder.asc(from.get(\"" + type.key.name + "\")));");
+        body.println("list = new ArrayList<>();");
+        body.println("for (Tuple tuple : em.createQuery(query).setFirstResult(offset).setMaxResults(limit + 1)");
+        body.println("        .getResultList()) {");
+        body.println("    list.add(row(tuple));");
         body.println("}");
-        body.println("if (where != null)");
-        body.println("    query.where(where);");
-        body.println("List<" + type.simple + "> list = em.createQuery(query.select(from)).getResultList();");
     }
 
-    public void find(PrintWriter body, String variableName) {
-        body.append(type.simple + " " + variableName + " = ");
-        if (type.primary()) {
-            body.append("em.find(" + type.simple + ".class, " + type.key.name + ");");
-        } else {
-            body.append("findByKey(" + type.key.name + ");");
+    /** the tuple query for the selected fields of the entity with the key */
+    public void findFields(PrintWriter body) {
+        body.println("CriteriaBuilder builder = em.getCriteriaBuilder();");
+        body.println("CriteriaQuery<Tuple> query = builder.createTupleQuery();");
+        body.println("Root<" + type.simple + "> from = query.from(" + type.simple + ".class);");
+        body.println("select(query, from, fields);");
+        body.println("query.where(builder.equal(from.get(\"" + type.key.name + "\"), " + type.key.name + "));");
+        body.println("rows = new ArrayList<>();");
+        body.println("for (Tuple tuple : em.createQuery(query).getResultList()) {");
+        body.println("    rows.add(row(tuple));");
+        body.println("}");
+    }
+
+    /** the key and the selectable fields in a comma separated list */
+    public void select(PrintWriter body) {
+        body.println("List<Selection<?>> selections = new ArrayList<>();");
+        body.println("selections.add(from.get(\"" + type.key.name + "\").alias(\"" + type.key.name + "\"));");
+        body.println("for (String field : fields.split(\",\")) {");
+        body.println("    field = field.trim();");
+        body.println("    if (!SELECTABLE.contains(field))");
+        body.println("        throw new IllegalArgumentException(\"can't select [\" + field + \"]\");");
+        body.println("    if (!field.equals(\"" + type.key.name + "\"))");
+        body.println("        selections.add(from.get(field).alias(field));");
+        body.println("}");
+        body.println("query.multiselect(selections);");
+    }
+
+    public void where(PrintWriter body) {
+        body.println("List<Predicate> where = new ArrayList<>();");
+        body.println("for (Map.Entry<String, List<String>> param : queryParams.entrySet()) {");
+        body.println("    if (RESERVED_QUERY_PARAMS.contains(param.getKey()))");
+        body.println("        continue;");
+        body.println("    for (String value : param.getValue())");
+        body.println("        where.add(filter(builder, from, param.getKey(), value));");
+        body.println("}");
+        body.println("return where;");
+    }
+
+    /**
+     * The predicate for a query param <code>attribute.operator=value</code>, with the value converted to the type of
+     * the attribute, so the database can use its indexes.
+     */
+    public void filter(PrintWriter body) {
+        body.println("int dot = param.indexOf('.');");
+        body.println("String attribute = (dot < 0) ? param : param.substring(0, dot);");
+        body.println("String operator = (dot < 0) ? \"eq\" : param.substring(dot + 1);");
+        body.println("Expression<Comparable<Object>> path = from.get(attribute);");
+        body.println("switch (operator) {");
+        body.println("case \"eq\":");
+        body.println("    return builder.equal(path, convert(attribute, value));");
+        body.println("case \"ne\":");
+        body.println("    return builder.notEqual(path, convert(attribute, value));");
+        body.println("case \"gt\":");
+        body.println("    return builder.greaterThan(path, convert(attribute, value));");
+        body.println("case \"ge\":");
+        body.println("    return builder.greaterThanOrEqualTo(path, convert(attribute, value));");
+        body.println("case \"lt\":");
+        body.println("    return builder.lessThan(path, convert(attribute, value));");
+        body.println("case \"le\":");
+        body.println("    return builder.lessThanOrEqualTo(path, convert(attribute, value));");
+        body.println("case \"in\":");
+        body.println("    List<Object> values = new ArrayList<>();");
+        body.println("    for (String item : value.split(\",\"))");
+        body.println("        values.add(convert(attribute, item));");
+        body.println("    return path.in(values);");
+        body.println("case \"like\":");
+        body.println("    if (!(convert(attribute, value) instanceof String))");
+        body.println("        throw new IllegalArgumentException(\"can't compare [\" + attribute + \"] with like\");");
+        body.println("    return builder.like(from.<String> get(attribute), value);");
+        body.println("default:");
+        body.println("    throw new IllegalArgumentException(\"unknown operator [\" + operator + \"]\");");
+        body.println("}");
+    }
+
+    public void count(PrintWriter body) {
+        body.println("CriteriaBuilder builder = em.getCriteriaBuilder();");
+        body.println("CriteriaQuery<Long> query = builder.createQuery(Long.class);");
+        body.println("Root<" + type.simple + "> from = query.from(" + type.simple + ".class);");
+        body.println("List<Predicate> where = where(builder, from, queryParams);");
+        body.println("query.where(where.toArray(new Predicate[where.size()]));");
+        body.println("long count = em.createQuery(query.select(builder.count(from))).getSingleResult();");
+    }
+
+    /**
+     * The next batch after the <code>last</code> entity for a streaming list. Only the first batch is fetched in the
+     * list method; the others while the response is written, i.e. without a transaction, so a transaction scoped
+     * entity manager detaches them anyway. An extended one keeps them, so it's cleared: the previous batch is written.
+     */
+    public void batch(PrintWriter body) {
+        if (type.extended) {
+            body.println("if (last != null)");
+            body.println("    em.clear();");
+        }
+        String lastKey = "last." + type.key.getter() + "()";
+        if (!type.key.type.nullable) // don't unbox a null after
+            lastKey = "(" + type.key.type.boxed().simple + ") " + lastKey;
+        body.println("TypedQuery<" + type.simple + "> query = listQuery(" + em()
+                + "queryParams, (last == null) ? after : " + lastKey + ");");
+        body.println("return ReadOnly.query(query, size).setMaxResults(size).getResultList();");
+    }
+
+    /** one page of the elements of a collection subresource, without loading the entity or the whole collection */
+    public void listSubresource(PrintWriter body, WebResourceField subresource) {
+        String element = subresource.type.uncollected.simple;
+        body.println("List<" + element + "> list = " + readOnly("em.createQuery(LIST_"
+                + subresource.name.toUpperCase() + ", " + element + ".class)") + ".setParameter(\"key\", "
+                + type.key.name + ")");
+        body.println("        .setFirstResult(offset).setMaxResults(limit + 1).getResultList();");
+    }
+
+    public String countSubresource(WebResourceField subresource) {
+        return "em.createQuery(COUNT_" + subresource.name.toUpperCase() + ", Long.class).setParameter(\"key\", "
+                + type.key.name + ").getSingleResult()";
+    }
+
+    /**
+     * If the elements own the relation, an element can be added without loading the entity, but then the version of
+     * the entity has to be incremented in JPQL. And the collection of an entity already loaded would not be updated, so
+     * this is not done for extended persistence contexts.
+     */
+    public boolean canAddToOwner(WebResourceField subresource) {
+        if (subresource.mappedBy() == null || !type.primary() || type.extended)
+            return false;
+        return type.version == null || canIncrementVersion();
+    }
+
+    /** JPQL can only increment numbers */
+    public boolean canIncrementVersion() {
+        String version = type.version.type.boxed().raw;
+        return "java.lang.Long".equals(version) || "java.lang.Integer".equals(version);
+    }
+
+    /**
+     * Set the owning side of the relation to a reference, so neither the entity nor the collection is loaded. An
+     * element with an id may exist already: then only its owner is changed, not the other fields.
+     */
+    public void addToOwner(PrintWriter body, WebResourceField subresource) {
+        String mappedBy = subresource.mappedBy();
+        String setter = "set" + Character.toUpperCase(mappedBy.charAt(0)) + mappedBy.substring(1);
+        String owner = "(em.getReference(" + type.simple + ".class, " + type.key.name + "));";
+        WebResourceField id = subresource.elementIdField();
+        if (id == null) {
+            body.println(subresource.name + "." + setter + owner);
+            body.println(subresource.name + " = em.merge(" + subresource.name + ");");
+            return;
         }
-        body.println();
+        String element = subresource.type.uncollected.simple;
+        String elementId = subresource.name + "." + id.getter() + "()";
+        String unset = id.type.nullable ? elementId + " == null" : elementId + " == 0";
+        body.println(element + " existing = (" + unset + ") ? null : em.find(" + element + ".class, " + elementId
+                + ");");
+        body.println("if (existing == null) {");
+        body.println("    " + subresource.name + "." + setter + owner);
+        body.println("    " + subresource.name + " = em.merge(" + subresource.name + ");");
+        body.println("} else {");
+        body.println("    existing." + setter + owner);
+        body.println("    " + subresource.name + " = existing;");
+        body.println("}");
+    }
+
+    /** the owner isn't loaded when an element is {@link #addToOwner added}, but its version and timestamp change */
+    public boolean canTouchByKey() {
+        if (type.version == null && type.timestamp == null)
+            return false;
+        for (WebResourceField subresource : type.subResourceFields)
+            if (subresource.type.isCollection && canAddToOwner(subresource))
+                return true;
+        return false;
+    }
+
+    private String touchByKey() {
+        StringBuilder jpql = new StringBuilder("UPDATE " + type.entityName + " e SET");
+        if (type.version != null) {
+            String version = "e." + type.version.name;
+            jpql.append(" ").append(version).append(" = ").append(version).append(" + 1,");
+        }
+        if (type.timestamp != null)
+            jpql.append(" e.").append(type.timestamp.name).append(" = :now,");
+        jpql.setLength(jpql.length() - 1);
+        return jpql.append(" WHERE e.").append(type.key.name).append(" = :key").toString();
+    }
+
+    /** the number of <code>touched</code> entities tells, if it exists */
+    public void touchByKey(PrintWriter body) {
+        String now = (type.timestamp == null) ? "" : ".setParameter(\"now\", " + now() + temporal() + ")";
+        body.println("int touched = em.createQuery(TOUCH_BY_KEY).setParameter(\"key\", " + type.key.name + ")" + now
+                + ".executeUpdate();");
+    }
+
+    public void find(PrintWriter body, String variableName) {
+        body.println(type.simple + " " + variableName + " = " + find() + ";");
+    }
+
+    public String find() {
+        if (type.primary())
+            return "em.find(" + type.simple + ".class, " + type.key.name + ")";
+        return "findByKey(" + em() + type.key.name + ")";
     }
 
     public void findByKey(PrintWriter body) {
-        body.println("TypedQuery<" + type.simple + "> query = em.createQuery(\"FROM " + type.simple + " WHERE "
-                + type.key.name + " = :" + type.key.name + "\", " + type.simple + ".class);");
+        body.println("TypedQuery<" + type.simple + "> query = em.createQuery(FIND_BY_KEY, " + type.simple
+                + ".class);");
+        body.println("try {");
+        body.println("    return query.setParameter(\"key\", " + type.key.name + ").getSingleResult();");
+        body.println("} catch (NoResultException e) {");
+        body.println("    return null;");
+        body.println("}");
+    }
+
+    /** only the version, so preconditions can be evaluated without loading the entity and its associations */
+    public void findVersion(PrintWriter body) {
+        String version = type.version.type.boxed().simple;
+        body.println("TypedQuery<" + version + "> query = em.createQuery(FIND_VERSION, " + version + ".class);");
+        body.println("try {");
+        body.println("    return query.setParameter(\"key\", " + type.key.name + ").getSingleResult();");
+        body.println("} catch (NoResultException e) {");
+        body.println("    return null;");
+        body.println("}");
+    }
+
+    /** the timestamp without loading the entity; <code>null</code> if there is none or no such entity */
+    public void findTimestamp(PrintWriter body) {
+        String timestamp = type.timestamp.type.boxed().simple;
+        body.println("TypedQuery<" + timestamp + "> query = em.createQuery(FIND_TIMESTAMP, " + timestamp
+                + ".class);");
         body.println("try {");
         body.println("    return query.setParameter(\"key\", " + type.key.name + ").getSingleResult();");
         body.println("} catch (NoResultException e) {");
@@ -60,6 +418,12 @@ public class JpaStoreWriter {
         body.println("}");
     }
 
+    /** existence without loading the entity */
+    public void exists(PrintWriter body) {
+        body.println("TypedQuery<Long> query = em.createQuery(COUNT_BY_KEY, Long.class);");
+        body.println("return query.setParameter(\"key\", " + type.key.name + ").getSingleResult() > 0;");
+    }
+
     public void persist(PrintWriter body) {
         body.println("if (" + type.lower + ".getId() == null) {");
         body.println("    em.persist(" + type.lower + ");");
@@ -69,11 +433,246 @@ public class JpaStoreWriter {
         flush(body);
     }
 
+    /** the entities for the keys, with one query per batch, so the number of parameters stays in the limits */
+    public void findByKeys(PrintWriter body) {
+        String key = type.key.type.boxed().simple;
+        body.println("Map<" + key + ", " + type.simple + "> found = new HashMap<>();");
+        body.println("for (int from = 0; from < keys.size(); from += " + type.batchSize + ") {");
+        body.println("    List<" + key + "> batch = keys.subList(from, Math.min(keys.size(), from + " + type.batchSize
+                + "));");
+        body.println("    TypedQuery<" + type.simple + "> query = " + readOnly("em.createQuery(FIND_BY_KEYS, "
+                + type.simple + ".class)") + ";");
+        body.println("    for (" + type.simple + " " + type.lower + " : query.setParameter(\"keys\", batch)"
+                + ".getResultList()) {");
+        body.println("        found.put(" + type.lower + "." + type.key.getter() + "(), " + type.lower + ");");
+        body.println("    }");
+        body.println("}");
+    }
+
+    /**
+     * Initialize the relations of the managed entities with one fetch join query per relation and batch of keys, not
+     * one query per entity. Fetching every relation separately prevents a cartesian product of the collections.
+     */
+    public void fetch(PrintWriter body) {
+        String key = type.key.type.boxed().simple;
+        body.println("if (list.isEmpty() || relations.isEmpty()) {");
+        body.println("    return;");
+        body.println("}");
+        body.println("List<" + key + "> keys = new ArrayList<>();");
+        body.println("for (" + type.simple + " " + type.lower + " : list) {");
+        body.println("    keys.add(" + type.lower + "." + type.key.getter() + "());");
+        body.println("}");
+        body.println("for (String relation : relations) {");
+        body.println("    String jpql = \"SELECT e FROM " + type.entityName + " e LEFT JOIN FETCH e.\" + relation");
+        body.println("            + \" WHERE e." + type.key.name + " IN :keys\";");
+        body.println("    for (int from = 0; from < keys.size(); from += " + type.batchSize + ") {");
+        body.println("        List<" + key + "> batch = keys.subList(from, Math.min(keys.size(), from + "
+                + type.batchSize + "));");
+        body.println("        " + readOnly("em.createQuery(jpql, " + type.simple + ".class)")
+                + ".setParameter(\"keys\", batch).getResultList();");
+        body.println("    }");
+        body.println("}");
+    }
+
+    /** persist in chunks of the batch size, detaching every flushed chunk, so they can be inserted as JDBC batches */
+    public void persistAll(PrintWriter body) {
+        body.println("int count = 0;");
+        body.println("for (" + type.simple + " " + type.lower + " : " + type.plural + ") {");
+        touch(body, "    " + type.lower);
+        body.println("    if (" + type.lower + ".getId() == null) {");
+        body.println("        em.persist(" + type.lower + ");");
+        body.println("    } else {");
+        body.println("        em.merge(" + type.lower + ");");
+        body.println("    }");
+        body.println("    if (++count % " + type.batchSize + " == 0) {");
+        body.println("        em.flush();");
+        body.println("        em.clear();");
+        body.println("    }");
+        body.println("}");
+        flush(body);
+    }
+
     public void merge(PrintWriter body) {
         body.println(type.simple + " result = em.merge(" + type.lower + ");");
         flush(body);
     }
 
+    /** the basic fields that can be converted from a form value, except for the technical fields */
+    public List<WebResourceField> patchableFields() {
+        List<WebResourceField> result = new ArrayList<>();
+        for (WebResourceField field : updatableFields())
+            if (field.fromString("") != null && !field.equals(type.timestamp))
+                result.add(field);
+        return result;
+    }
+
+    /**
+     * A version that can't be {@link #canIncrementVersion() incremented in JPQL} is left to the provider, so the entity
+     * is loaded and the <code>values</code> are set; the version is compared as the string of the entity tag.
+     */
+    public void patchLoaded(PrintWriter body) {
+        find(body, type.lower);
+        body.println("int updated = 0;");
+        body.println("if (" + type.lower + " != null && (expected == null || expected.equals(Objects.toString("
+                + type.lower + "." + type.version.getter() + "())))) {");
+        body.println("    for (Map.Entry<String, Object> value : values.entrySet()) {");
+        body.println("        switch (value.getKey()) {");
+        for (WebResourceField field : patchableFields()) {
+            body.println("        case \"" + field.name + "\":");
+            body.println("            " + type.lower + "." + field.setter() + "((" + field.type.boxed().raw
+                    + ") value.getValue());");
+            body.println("            break;");
+        }
+        body.println("        }");
+        body.println("    }");
+        if (type.timestamp != null)
+            body.println("    " + type.lower + "." + type.timestamp.setter() + "(" + now() + ");");
+        body.println("    em.flush();");
+        body.println("    updated = 1;");
+        body.println("}");
+    }
+
+    /**
+     * A JPQL update of only the patched <code>values</code>, without loading the entity; the version is incremented
+     * and, if there is an <code>expected</code> version, checked in the same statement.
+     */
+    public void patch(PrintWriter body) {
+        body.println("StringBuilder jpql = new StringBuilder(\"UPDATE " + type.entityName + " e SET\");");
+        body.println("int position = 0;");
+        body.println("for (String attribute : values.keySet()) {");
+        body.println("    jpql.append(\" e.\").append(attribute).append(\" = ?\").append(++position).append(',');");
+        body.println("}");
+        if (type.timestamp != null)
+            body.println("jpql.append(\" e." + type.timestamp.name + " = ?\").append(++position).append(',');");
+        if (type.version == null) {
+            body.println("jpql.setLength(jpql.length() - 1);");
+            body.println("jpql.append(\" WHERE e." + type.key.name + " = ?\").append(++position);");
+        } else {
+            String version = "e." + type.version.name;
+            body.println("jpql.append(\" " + version + " = " + version + " + 1 WHERE e." + type.key.name
+                    + " = ?\").append(++position);");
+            body.println("if (expected != null) {");
+            body.println("    jpql.append(\" AND " + version + " = ?\").append(++position);");
+            body.println("}");
+        }
+        body.println("Query query = em.createQuery(jpql.toString());");
+        body.println("position = 0;");
+        List<WebResourceField> temporals = temporalFields();
+        if (temporals.isEmpty()) {
+            body.println("for (Object value : values.values()) {");
+            body.println("    query.setParameter(++position, value);");
+            body.println("}");
+        } else {
+            body.println("for (Map.Entry<String, Object> value : values.entrySet()) {");
+            body.println("    switch (value.getKey()) {");
+            for (WebResourceField field : temporals) {
+                String date = "java.util.Calendar".equals(field.type.raw) ? "java.util.Calendar" : "java.util.Date";
+                body.println("    case \"" + field.name + "\":");
+                body.println("        query.setParameter(++position, (" + date + ") value.getValue(), TemporalType."
+                        + field.temporalType() + ");");
+                body.println("        continue;");
+            }
+            body.println("    }");
+            body.println("    query.setParameter(++position, value.getValue());");
+            body.println("}");
+        }
+        if (type.timestamp != null)
+            body.println("query.setParameter(++position, " + now() + temporal() + ");");
+        body.println("query.setParameter(++position, " + type.key.name + ");");
+        if (type.version != null) {
+            body.println("if (expected != null) {");
+            body.println("    query.setParameter(++position, expected);");
+            body.println("}");
+        }
+        body.println("int updated = query.executeUpdate();");
+    }
+
+    /** the patchable date fields, as their parameters need a <code>TemporalType</code> */
+    private List<WebResourceField> temporalFields() {
+        List<WebResourceField> result = new ArrayList<>();
+        for (WebResourceField field : patchableFields())
+            if (field.temporalType() != null)
+                result.add(field);
+        return result;
+    }
+
+    /**
+     * A PUT by a secondary key would have to find the id before the merge, which selects the entity again; a flat
+     * entity can be updated with one statement instead, if the version can be incremented in JPQL.
+     */
+    public boolean canUpdateByKey() {
+        if (type.primary() || !type.flat())
+            return false;
+        if (type.version == null)
+            return !updatableFields().isEmpty();
+        return canIncrementVersion();
+    }
+
+    private String updateByKey() {
+        StringBuilder jpql = new StringBuilder("UPDATE " + type.entityName + " e SET");
+        for (WebResourceField field : updatableFields())
+            jpql.append(" e.").append(field.name).append(" = :").append(field.name).append(",");
+        if (type.version == null) {
+            jpql.setLength(jpql.length() - 1);
+        } else {
+            String version = "e." + type.version.name;
+            jpql.append(" ").append(version).append(" = ").append(version).append(" + 1");
+        }
+        return jpql.append(" WHERE e.").append(type.key.name).append(" = :key").toString();
+    }
+
+    private List<WebResourceField> updatableFields() {
+        List<WebResourceField> result = new ArrayList<>();
+        for (WebResourceField field : type.fields)
+            if (!field.equals(type.id) && !field.equals(type.key) && !field.equals(type.version))
+                result.add(field);
+        return result;
+    }
+
+    /** the version condition is appended to the constant, so there are only two distinct query strings */
+    public void updateByKey(PrintWriter body) {
+        touch(body, type.lower);
+        String jpql = "UPDATE_BY_KEY";
+        if (type.version != null) {
+            body.println(type.version.type.boxed().simple + " expected = " + type.lower + "." + type.version.getter()
+                    + "();");
+            jpql = "(expected == null) ? UPDATE_BY_KEY : UPDATE_BY_KEY + \" AND e." + type.version.name
+                    + " = :expected\"";
+        }
+        body.println("Query query = em.createQuery(" + jpql + ");");
+        for (WebResourceField field : updatableFields())
+            body.println("query.setParameter(\"" + field.name + "\", " + type.lower + "." + field.getter() + "());");
+        body.println("query.setParameter(\"key\", " + type.key.name + ");");
+        if (type.version != null) {
+            body.println("if (expected != null) {");
+            body.println("    query.setParameter(\"expected\", expected);");
+            body.println("}");
+        }
+        body.println("int updated = query.executeUpdate();");
+    }
+
+    /**
+     * A bulk delete doesn't cascade, so it's only possible for flat entities; and it doesn't check the version, so
+     * only without one.
+     */
+    public boolean canDeleteByKey() {
+        return type.version == null && type.flat();
+    }
+
+    public void deleteByKey(PrintWriter body) {
+        body.println("int deleted = em.createQuery(DELETE_BY_KEY).setParameter(\"key\", " + type.key.name
+                + ").executeUpdate();");
+    }
+
+    /** a reference is enough to cascade the remove, but it requires the primary key */
+    public boolean canRemoveReference() {
+        return type.version == null && type.primary();
+    }
+
+    public void removeReference(PrintWriter body) {
+        body.println("em.remove(em.getReference(" + type.simple + ".class, " + type.key.name + "));");
+    }
+
     public void remove(PrintWriter body) {
         body.println("em.remove(result);");
     }
@@ -1,7 +1,6 @@
 package com.github.t1.webresource;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 import javax.lang.model.element.*;
 import javax.lang.model.type.DeclaredType;
@@ -40,6 +39,28 @@ public class WebResourceField {
         return result;
     }
 
+    /** All fields that JPA maps to the database, i.e. that are neither static nor transient */
+    static List<WebResourceField> findPersistentFields(TypeElement classElement) {
+        List<WebResourceField> result = new ArrayList<>();
+        for (Element enclosedElement : classElement.getEnclosedElements()) {
+            if (ElementKind.FIELD != enclosedElement.getKind())
+                continue;
+            Set<Modifier> modifiers = enclosedElement.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT))
+                continue;
+            // don't use the Transient type itself, it may not be available at compile-time
+            if (isAnnotated(enclosedElement, "javax.persistence.Transient"))
+                continue;
+            result.add(new WebResourceField(enclosedElement));
+        }
+        TypeMirror superclass = classElement.getSuperclass();
+        if (superclass != null && superclass instanceof DeclaredType) {
+            Element superElement = ((DeclaredType) superclass).asElement();
+            result.addAll(findPersistentFields((TypeElement) superElement));
+        }
+        return result;
+    }
+
     static boolean isAnnotated(Element element, String annotationName) {
         return getAnnotation(element, annotationName) != null;
     }
@@ -53,6 +74,22 @@ public class WebResourceField {
         return null;
     }
 
+    private static final List<String> RELATION_ANNOTATIONS = Arrays.asList("javax.persistence.ManyToOne",
+            "javax.persistence.OneToOne", "javax.persistence.OneToMany", "javax.persistence.ManyToMany",
+            "javax.persistence.ElementCollection");
+
+    private static final List<String> NON_BASIC_ANNOTATIONS = Arrays.asList("javax.persistence.ManyToOne",
+            "javax.persistence.OneToOne", "javax.persistence.OneToMany", "javax.persistence.ManyToMany",
+            "javax.persistence.ElementCollection", "javax.persistence.Embedded", "javax.persistence.EmbeddedId");
+
+    /** the <code>DatatypeConverter</code> method for the ISO-8601 strings of a <code>TemporalType</code> */
+    private static final Map<String, String> ISO_8601_PARSERS = new HashMap<>();
+    static {
+        ISO_8601_PARSERS.put("DATE", "Date");
+        ISO_8601_PARSERS.put("TIME", "Time");
+        ISO_8601_PARSERS.put("TIMESTAMP", "DateTime");
+    }
+
     private final Element field;
 
     /** The field name */
@@ -61,12 +98,19 @@ public class WebResourceField {
     public final List<String> imports = new ArrayList<>();
 
     final TypeString type;
+    /** Is the type of this field an enum */
+    final boolean isEnum;
 
     private WebResourceField(Element field) {
         this.field = field;
         this.name = field.getSimpleName().toString();
         this.type = new TypeString(field.asType().toString());
         this.imports.addAll(type.imports);
+        this.isEnum = isEnum(field.asType());
+    }
+
+    private static boolean isEnum(TypeMirror type) {
+        return type instanceof DeclaredType && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
     }
 
     @Override
@@ -94,6 +138,128 @@ public class WebResourceField {
         return Character.toUpperCase(name.charAt(0)) + name.substring(1);
     }
 
+    /**
+     * The java expression that converts the String <code>expression</code> to the (boxed) type of this field, or
+     * <code>null</code> if there is no simple conversion, e.g. for collections or other entities. The types are fully
+     * qualified, so they don't have to be imported.
+     */
+    public String fromString(String expression) {
+        TypeString boxed = type.boxed();
+        switch (boxed.raw) {
+        case "java.lang.String":
+            return expression;
+        case "java.lang.Boolean":
+        case "java.lang.Byte":
+        case "java.lang.Short":
+        case "java.lang.Integer":
+        case "java.lang.Long":
+        case "java.lang.Float":
+        case "java.lang.Double":
+            return boxed.simple + ".valueOf(" + expression + ")";
+        case "java.math.BigInteger":
+        case "java.math.BigDecimal":
+            return "new " + boxed.raw + "(" + expression + ")";
+        }
+        if (isEnum)
+            return type.raw + ".valueOf(" + expression + ")";
+        String temporal = temporalType();
+        if (temporal != null) {
+            // ISO-8601, e.g. 2014-05-13, 12:30:00, or 2014-05-13T12:30:00Z
+            String calendar = "javax.xml.bind.DatatypeConverter.parse" + ISO_8601_PARSERS.get(temporal) + "("
+                    + expression + ")";
+            switch (type.raw) {
+            case "java.util.Calendar":
+                return calendar;
+            case "java.util.Date":
+                return calendar + ".getTime()";
+            default:
+                return "new " + type.raw + "(" + calendar + ".getTimeInMillis())";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The name of the <code>TemporalType</code> of a date field: of the <code>java.sql</code> type, or the
+     * <code>@Temporal</code> annotation of a <code>Date</code> or <code>Calendar</code>; else <code>null</code>
+     */
+    public String temporalType() {
+        switch (type.raw) {
+        case "java.sql.Date":
+            return "DATE";
+        case "java.sql.Time":
+            return "TIME";
+        case "java.sql.Timestamp":
+            return "TIMESTAMP";
+        case "java.util.Date":
+        case "java.util.Calendar":
+            String temporal = annotationValue("javax.persistence.Temporal", "value");
+            return (temporal == null) ? "TIMESTAMP" : temporal.substring(temporal.lastIndexOf('.') + 1);
+        }
+        return null;
+    }
+
+    /** Is this a basic field, i.e. not a collection, a relation to other entities, or embedded */
+    public boolean isBasic() {
+        if (type.isCollection)
+            return false;
+        for (String annotation : NON_BASIC_ANNOTATIONS)
+            if (isAnnotated(field, annotation))
+                return false;
+        return true;
+    }
+
+    /** Is this a relation to other entities or a collection, i.e. something that can be fetched lazily */
+    public boolean isRelation() {
+        if (type.isCollection)
+            return true;
+        for (String annotation : RELATION_ANNOTATIONS)
+            if (isAnnotated(field, annotation))
+                return true;
+        return false;
+    }
+
+    /** The field of the elements that owns this bidirectional one-to-many relation, or <code>null</code> */
+    public String mappedBy() {
+        String mappedBy = annotationValue("javax.persistence.OneToMany", "mappedBy");
+        return (mappedBy == null || mappedBy.isEmpty()) ? null : mappedBy;
+    }
+
+    /** The value of an annotation of this field, if it's annotated and the value is set explicitly */
+    private String annotationValue(String annotationName, String valueName) {
+        AnnotationMirror annotation = getAnnotation(field, annotationName);
+        if (annotation == null)
+            return null;
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues()
+                .entrySet())
+            if (entry.getKey().getSimpleName().contentEquals(valueName))
+                return entry.getValue().getValue().toString();
+        return null;
+    }
+
+    /**
+     * The name of the id field of the elements of this collection, if they are entities with an id field, else
+     * <code>null</code>, e.g. for basic elements
+     */
+    public String elementId() {
+        WebResourceField id = elementIdField();
+        return (id == null) ? null : id.name;
+    }
+
+    /** The id field of the elements of this collection, or <code>null</code>; see {@link #elementId()} */
+    public WebResourceField elementIdField() {
+        TypeMirror mirror = field.asType();
+        if (!(mirror instanceof DeclaredType))
+            return null;
+        List<? extends TypeMirror> arguments = ((DeclaredType) mirror).getTypeArguments();
+        if (arguments.size() != 1 || !(arguments.get(0) instanceof DeclaredType))
+            return null;
+        Element element = ((DeclaredType) arguments.get(0)).asElement();
+        if (!isAnnotated(element, "javax.persistence.Entity"))
+            return null;
+        return findField((TypeElement) element, "javax.persistence.Id");
+    }
+
     public String getter() {
         return "get" + uppercaps();
     }
@@ -1,6 +1,8 @@
 package com.github.t1.webresource;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import javax.lang.model.element.*;
 
@@ -16,10 +18,31 @@ public class WebResourceType {
     final String plural;
     final String qualified;
     final boolean extended;
+    final int pageSize;
+    final boolean streaming;
+    final int batchSize;
+    final int fetchSize;
+    final int cacheSize;
+    final int countCacheSeconds;
+    final boolean async;
+    final int asyncLimit;
+    final int asyncTimeout;
+    final int quota;
+    final int quotaSeconds;
+    final String quotaClientHeader;
+    final int quotaMaximumClients;
+    final int concurrencyLimit;
+    final String readUnit;
+    final int readYourWritesSeconds;
+    final int changesRetentionSeconds;
+    final int changesLagSeconds;
     public final WebResourceField id;
     public final WebResourceField key;
     public final WebResourceField version;
+    public final WebResourceField timestamp;
     final List<WebResourceField> subResourceFields;
+    /** all persistent fields */
+    final List<WebResourceField> fields;
 
     public WebResourceType(TypeElement typeElement) {
         this.typeElement = typeElement;
@@ -30,11 +53,32 @@ public class WebResourceType {
         this.lower = simple.toLowerCase();
         this.plural = new WebResourceTypeInfo(simple).plural;
         this.qualified = qualified();
-        this.extended = isExtended();
+        WebResource annotation = webResource();
+        this.extended = annotation.extended();
+        this.pageSize = annotation.pageSize();
+        this.streaming = annotation.streaming();
+        this.batchSize = annotation.batchSize();
+        this.fetchSize = annotation.fetchSize();
+        this.cacheSize = annotation.cacheSize();
+        this.countCacheSeconds = annotation.countCacheSeconds();
+        this.async = annotation.async();
+        this.asyncLimit = annotation.asyncLimit();
+        this.asyncTimeout = annotation.asyncTimeout();
+        this.quota = annotation.quota();
+        this.quotaSeconds = annotation.quotaSeconds();
+        this.quotaClientHeader = annotation.quotaClientHeader();
+        this.quotaMaximumClients = annotation.quotaMaximumClients();
+        this.concurrencyLimit = annotation.concurrencyLimit();
+        this.readUnit = annotation.readUnit();
+        this.readYourWritesSeconds = annotation.readYourWritesSeconds();
+        this.changesRetentionSeconds = annotation.changesRetentionSeconds();
+        this.changesLagSeconds = annotation.changesLagSeconds();
         this.id = id();
         this.key = key();
         this.version = version();
+        this.timestamp = timestamp();
         this.subResourceFields = subResourceFields();
+        this.fields = WebResourceField.findPersistentFields(typeElement);
     }
 
     private String pkg() {
@@ -46,11 +90,11 @@ public class WebResourceType {
         throw new IllegalStateException("no package for " + typeElement);
     }
 
-    private boolean isExtended() {
+    private WebResource webResource() {
         WebResource annotation = typeElement.getAnnotation(WebResource.class);
         if (annotation == null)
             throw new RuntimeException("expected type to be annotated as WebResource: " + typeElement);
-        return annotation.extended();
+        return annotation;
     }
 
     private String qualified() {
@@ -60,9 +104,11 @@ public class WebResourceType {
     private String entity() {
         AnnotationMirror annotation = WebResourceField.getAnnotation(typeElement, "javax.persistence.Entity");
         if (annotation != null) {
-            AnnotationValue name = annotation.getElementValues().get("name");
-            if (name != null) {
-                return name.toString();
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation
+                    .getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("name")) {
+                    return entry.getValue().getValue().toString();
+                }
             }
         }
         return typeElement.getSimpleName().toString();
@@ -83,6 +129,10 @@ public class WebResourceType {
         return WebResourceField.findField(typeElement, "javax.persistence.Version");
     }
 
+    private WebResourceField timestamp() {
+        return WebResourceField.findField(typeElement, WebResourceTimestamp.class.getName());
+    }
+
     private List<WebResourceField> subResourceFields() {
         return WebResourceField.findFields(typeElement, WebSubResource.class.getName());
     }
@@ -90,4 +140,21 @@ public class WebResourceType {
     public boolean primary() {
         return id.equals(key);
     }
+
+    /** The persistent fields that are relations */
+    public List<WebResourceField> relations() {
+        List<WebResourceField> result = new ArrayList<>();
+        for (WebResourceField field : fields)
+            if (field.isRelation())
+                result.add(field);
+        return result;
+    }
+
+    /** Are all persistent fields basic, i.e. there are no relations, collections, or embedded fields */
+    public boolean flat() {
+        for (WebResourceField field : fields)
+            if (!field.isBasic())
+                return false;
+        return true;
+    }
 }
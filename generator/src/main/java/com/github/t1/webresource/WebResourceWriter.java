@@ -1,12 +1,24 @@
 package com.github.t1.webresource;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Resource;
 import javax.annotation.processing.Messager;
-import javax.ejb.Stateless;
+import javax.ejb.*;
+import javax.interceptor.*;
 import javax.lang.model.element.TypeElement;
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Predicate;
 import javax.tools.Diagnostic.Kind;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.*;
 
 import org.slf4j.Logger;
@@ -18,6 +30,10 @@ class WebResourceWriter {
     private final WebResourceType type;
     private JpaStoreWriter store;
     private ClassBuilder classBuilder;
+    /** the methods that only read, so they don't need a transaction */
+    private List<MethodBuilder> readOnlyMethods;
+    /** the methods that are not limited by the concurrency limit */
+    private List<MethodBuilder> unlimitedMethods;
 
     public WebResourceWriter(Messager messager, TypeElement typeElement) {
         this.type = new WebResourceType(typeElement);
@@ -25,11 +41,17 @@ class WebResourceWriter {
             messager.printMessage(Kind.ERROR, "can't find @Id or @WebResourceKey field", typeElement);
         if (type.key == null)
             throw new IllegalStateException("no id type found in " + type.qualified);
+        if (type.timestamp != null && !JpaStoreWriter.isTimestamp(type.timestamp))
+            messager.printMessage(Kind.ERROR, "a timestamp must be a java.util.Date or a long", typeElement);
+        if (type.cacheSize > 0 && !cached())
+            messager.printMessage(Kind.WARNING, "only entities without relations can be cached", typeElement);
     }
 
     synchronized public String run() {
         this.store = new JpaStoreWriter(type);
         this.classBuilder = new ClassBuilder(type.pkg, type.simple + "WebResource");
+        this.readOnlyMethods = new ArrayList<>();
+        this.unlimitedMethods = new ArrayList<>();
         buildClass();
         return new ClassSourceWriter(classBuilder, type).write();
     }
@@ -37,17 +59,137 @@ class WebResourceWriter {
     private void buildClass() {
         classBuilder.annotate(Path.class).value("/" + type.plural);
         classBuilder.annotate(Stateless.class);
+        if (type.quota > 0) {
+            AnnotationBuilder quota = classBuilder.annotate(RequestQuota.class);
+            quota.parameter("requests", type.quota).parameter("seconds", type.quotaSeconds);
+            if (!type.quotaClientHeader.isEmpty())
+                quota.parameter("clientHeader", type.quotaClientHeader);
+            if (type.quotaMaximumClients != 100000)
+                quota.parameter("maximumClients", type.quotaMaximumClients);
+        }
+        if (type.concurrencyLimit > 0) {
+            classBuilder.annotate(ConcurrencyLimit.class).parameter("maximum", type.concurrencyLimit);
+            classBuilder.annotate(Interceptors.class).value(ConcurrencyLimitInterceptor.class);
+            classBuilder.using(ConcurrencyLimitInterceptor.class);
+        }
         logger();
         store.declare(classBuilder);
+        if (cached())
+            cache();
+        if (afterCommit())
+            afterCommitMethods();
+        if (store.replicated())
+            replication();
 
         LIST();
         GET();
+        if (expandable())
+            expandMethods();
+        getFieldsMethod();
+        fieldsMethods();
         if (!type.primary())
             findByKeyMethod();
+        if (type.version != null)
+            preconditionMethods();
+        else
+            existsMethod();
+        if (type.timestamp != null)
+            lastModifiedMethods();
         POST();
+        BULK();
+        BATCH_GET();
+        if (type.timestamp != null)
+            CHANGES();
         PUT();
+        PATCH();
         DELETE();
+        HEAD();
+        OPTIONS();
         subresources();
+        if (type.async)
+            async();
+        readOnly();
+        for (MethodBuilder method : unlimitedMethods)
+            method.annotate(ExcludeClassInterceptors.class);
+    }
+
+    /**
+     * Run the read methods with the transaction of the caller, i.e. normally without one, so there is no commit and
+     * no flush. This is done after {@link #async()}, so it's the method doing the work that is not transactional.
+     */
+    private void readOnly() {
+        classBuilder.using(TransactionAttribute.class).using(TransactionAttributeType.class);
+        for (MethodBuilder method : readOnlyMethods)
+            method.annotate(TransactionAttribute.class).value(TransactionAttributeType.SUPPORTS);
+    }
+
+    /**
+     * Without a transaction, every call to the entity manager uses a new persistence context, so it's only possible
+     * for types without relations: relations may have to be fetched or lazily loaded in the same context.
+     */
+    private void readOnly(MethodBuilder method, boolean loadsEntities) {
+        if (!loadsEntities || !expandable())
+            readOnlyMethods.add(method);
+    }
+
+    /**
+     * Split every resource method (but OPTIONS) into three: the JAX-RS method checks the limit and dispatches to the
+     * asynchronous EJB method, which calls the original method in a transaction and resumes the response after commit.
+     */
+    private void async() {
+        classBuilder.field(Semaphore.class, "ADMISSION").static_().final_()
+                .init("new Semaphore(" + type.asyncLimit + ")");
+        classBuilder.field(SessionContext.class, "context").annotate(Resource.class);
+        classBuilder.using(Resource.class).using(TimeUnit.class);
+        classBuilder.using(Asynchronous.class).using(TransactionAttribute.class).using(TransactionAttributeType.class);
+        classBuilder.using(AsyncResponse.class).using(Suspended.class);
+        if (type.concurrencyLimit > 0)
+            classBuilder.using(ExcludeClassInterceptors.class);
+        for (MethodBuilder method : classBuilder.methods()) {
+            if (!method.isAnnotatedWith(HttpMethod.class) || method.isAnnotated(OPTIONS.class))
+                continue;
+            String name = method.name();
+            String self = "context.getBusinessObject(" + type.simple + "WebResource.class)";
+            MethodBuilder resource = classBuilder.wrap(method, new TypeString(void.class), name + "Sync");
+            resource.annotate(TransactionAttribute.class).value(TransactionAttributeType.NOT_SUPPORTED);
+            if (type.concurrencyLimit > 0)
+                resource.annotate(ExcludeClassInterceptors.class);
+            resource.parameter(AsyncResponse.class, "asyncResponse").annotate(Suspended.class);
+            try (PrintWriter body = resource.body()) {
+                body.println("if (!ADMISSION.tryAcquire()) {");
+                body.println("    asyncResponse.resume(Response.status(Status.SERVICE_UNAVAILABLE).build());");
+                body.println("    return;");
+                body.println("}");
+                body.println("asyncResponse.setTimeout(" + type.asyncTimeout + ", TimeUnit.SECONDS);");
+                body.println("try {");
+                body.println("    " + self + "." + name + "Async(" + arguments(method, "asyncResponse") + ");");
+                body.println("} catch (RuntimeException e) {");
+                body.println("    ADMISSION.release();");
+                body.println("    throw e;");
+                body.println("}");
+            }
+
+            MethodBuilder async = classBuilder.methodAfter(resource, new TypeString(void.class), name + "Async");
+            async.annotate(Asynchronous.class);
+            async.annotate(TransactionAttribute.class).value(TransactionAttributeType.NOT_SUPPORTED);
+            if (type.concurrencyLimit > 0)
+                async.annotate(ExcludeClassInterceptors.class);
+            async.parametersOf(method).parameter(AsyncResponse.class, "asyncResponse");
+            try (PrintWriter body = async.body()) {
+                body.println("try {");
+                body.println("    asyncResponse.resume(" + self + "." + name + "Sync(" + method.arguments() + "));");
+                body.println("} catch (RuntimeException e) {");
+                body.println("    asyncResponse.resume(e);");
+                body.println("} finally {");
+                body.println("    ADMISSION.release();");
+                body.println("}");
+            }
+        }
+    }
+
+    private String arguments(MethodBuilder method, String more) {
+        String arguments = method.arguments();
+        return arguments.isEmpty() ? more : arguments + ", " + more;
     }
 
     private void logger() {
@@ -56,17 +198,362 @@ class WebResourceWriter {
     }
 
     private void LIST() {
+        if (type.streaming) {
+            streamingLIST();
+        } else {
+            pagedLIST();
+        }
+        listQueryMethod();
+        countMethod();
+    }
+
+    private void pagedLIST() {
         MethodBuilder method = classBuilder.method(Response.class, "list" + type.simple);
         method.annotate(GET.class);
+        readOnly(method, true);
+        pagingParameters(method);
+        fieldsParameter(method);
+        if (expandable())
+            expandParameter(method);
+        countParameter(method);
         uriInfoParameter(method);
         try (PrintWriter body = method.body()) {
             body.println("MultivaluedMap<String, String> queryParams = uriInfo.getQueryParameters();");
             body.println(logLine("get " + type.plural + " where {}", "queryParams"));
             body.println();
+            reader(body, "null");
+            invalidPaging(body);
+            body.println("if (fields != null) {");
+            body.println("    return listFields(" + store.em()
+                    + "fields, queryParams, limit, offset, after, count, uriInfo);");
+            body.println("}");
+            body.println();
+            body.println("TypedQuery<" + type.simple + "> query;");
+            if (expandable())
+                body.println("List<String> relations;");
+            body.println("try {");
+            body.println("    query = listQuery(" + store.em() + "queryParams, after);");
+            if (expandable())
+                body.println("    relations = relations(expand);");
+            invalidQueryParams(body);
             store.list(body);
+            if (expandable())
+                body.println("fetch(" + store.em() + "list, relations);");
+            body.println();
+            pagingLinks(body, type.simple, "last." + type.key.getter() + "()");
+        }
+        listFieldsMethod();
+    }
+
+    private void countParameter(MethodBuilder method) {
+        ParameterBuilder count = method.parameter(boolean.class, "count");
+        count.annotate(QueryParam.class).value("count");
+        count.annotate(DefaultValue.class).value("false");
+    }
+
+    private void invalidPaging(PrintWriter body) {
+        body.println("if (limit < 1 || offset < 0) {");
+        body.println("    String message = \"limit must be positive and offset must not be negative\";");
+        body.println("    return Response.status(Status.BAD_REQUEST).entity(message).build();");
+        body.println("}");
+    }
+
+    /** relations can be expanded in the paged list and for single entities */
+    private boolean expandable() {
+        return !type.relations().isEmpty();
+    }
+
+    private void expandParameter(MethodBuilder method) {
+        method.parameter(String.class, "expand").annotate(QueryParam.class).value("expand");
+    }
+
+    private void expandMethods() {
+        List<String> expandable = new ArrayList<>();
+        for (WebResourceField field : type.relations())
+            expandable.add("\"" + field.name + "\"");
+        classBuilder.field(new TypeString("java.util.List<java.lang.String>"), "EXPANDABLE").static_().final_()
+                .init("Arrays.asList(" + join(expandable) + ")");
+
+        TypeString strings = new TypeString("java.util.List<java.lang.String>");
+        MethodBuilder relations = classBuilder.method(strings, "relations").private_();
+        relations.parameter(String.class, "expand");
+        try (PrintWriter body = relations.body()) {
+            body.println("if (expand == null) {");
+            body.println("    return Collections.emptyList();");
+            body.println("}");
+            body.println("List<String> relations = Arrays.asList(expand.split(\",\"));");
+            body.println("for (String relation : relations) {");
+            body.println("    if (!EXPANDABLE.contains(relation)) {");
+            body.println("        throw new IllegalArgumentException(\"can't expand [\" + relation + \"]\");");
+            body.println("    }");
+            body.println("}");
+            body.println("return relations;");
+        }
+
+        MethodBuilder fetch = classBuilder.method(void.class, "fetch").private_();
+        store.entityManagerParameter(fetch);
+        fetch.parameter(new TypeString("java.util.List<" + type.qualified + ">"), "list");
+        fetch.parameter(strings, "relations");
+        store.fetch(fetch.body());
+    }
+
+    private void fieldsParameter(MethodBuilder method) {
+        method.parameter(String.class, "fields").annotate(QueryParam.class).value("fields");
+    }
+
+    /** only the selected fields of one page of the list, without loading the entities */
+    private void listFieldsMethod() {
+        MethodBuilder method = classBuilder.method(Response.class, "listFields").private_();
+        store.entityManagerParameter(method);
+        method.parameter(String.class, "fields");
+        queryParamsParameter(method);
+        method.parameter(int.class, "limit");
+        method.parameter(int.class, "offset");
+        method.parameter(type.key.type.boxed(), "after");
+        method.parameter(boolean.class, "count");
+        method.parameter(UriInfo.class, "uriInfo");
+        try (PrintWriter body = method.body()) {
+            body.println("List<Map<String, Object>> list;");
+            body.println("try {");
+            StringWriter query = new StringWriter();
+            store.listFields(new PrintWriter(query));
+            printIndented(body, "    ", query);
+            invalidQueryParams(body);
+            body.println();
+            pagingLinks(body, "Map<String, Object>", "last.get(\"" + type.key.name + "\")");
+        }
+    }
+
+    private void fieldsMethods() {
+        List<String> selectable = new ArrayList<>();
+        for (WebResourceField field : type.fields)
+            if (field.isBasic())
+                selectable.add("\"" + field.name + "\"");
+        classBuilder.field(new TypeString("java.util.List<java.lang.String>"), "SELECTABLE").static_().final_()
+                .init("Arrays.asList(" + join(selectable) + ")");
+
+        MethodBuilder method = classBuilder.method(void.class, "select").private_();
+        method.parameter(new TypeString("javax.persistence.criteria.CriteriaQuery<javax.persistence.Tuple>"),
+                "query");
+        method.parameter(new TypeString("javax.persistence.criteria.Root<" + type.qualified + ">"), "from");
+        method.parameter(String.class, "fields");
+        store.select(method.body());
+
+        MethodBuilder row = classBuilder.method(new TypeString("java.util.Map<java.lang.String, java.lang.Object>"),
+                "row").private_();
+        row.parameter(new TypeString("javax.persistence.Tuple"), "tuple");
+        try (PrintWriter body = row.body()) {
+            body.println("Map<String, Object> row = new LinkedHashMap<>();");
+            body.println("for (TupleElement<?> element : tuple.getElements()) {");
+            body.println("    row.put(element.getAlias(), tuple.get(element));");
+            body.println("}");
+            body.println("return row;");
+        }
+    }
+
+    private void streamingLIST() {
+        MethodBuilder method = classBuilder.method(Response.class, "list" + type.simple);
+        method.annotate(GET.class);
+        readOnly(method, true);
+        method.parameter(type.key.type.boxed(), "after").final_().annotate(QueryParam.class).value("after");
+        uriInfoParameter(method);
+        classBuilder.using(BatchedCollection.class);
+        try (PrintWriter body = method.body()) {
+            body.println("final MultivaluedMap<String, String> queryParams = uriInfo.getQueryParameters();");
+            body.println(logLine("stream " + type.plural + " where {}", "queryParams"));
+            body.println();
+            if (store.replicated())
+                body.println("final EntityManager em = reader(null);");
+            body.println("Collection<" + type.simple + "> list = new BatchedCollection<" + type.simple + ">("
+                    + type.batchSize + ") {");
+            body.println("    @Override");
+            body.println("    protected List<" + type.simple + "> batch(" + type.simple + " last, int size) {");
+            StringWriter batch = new StringWriter();
+            store.batch(new PrintWriter(batch));
+            printIndented(body, "        ", batch);
+            body.println("    }");
             body.println();
-            body.println("return Response.ok(list).build();");
+            body.println("    @Override");
+            body.println("    protected long count() {");
+            body.println("        return " + type.simple + "WebResource.this.count(" + store.em() + "queryParams);");
+            body.println("    }");
+            body.println("};");
+            body.println("try {");
+            body.println("    list.isEmpty(); // fetch the first batch now, so invalid query params fail early");
+            invalidQueryParams(body);
+            body.println();
+            body.println("return Response.ok(new GenericEntity<Collection<" + type.simple + ">>(list) {}).build();");
+        }
+    }
+
+    private void invalidQueryParams(PrintWriter body) {
+        body.println("} catch (IllegalArgumentException e) {");
+        body.println("    return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();");
+        body.println("}");
+    }
+
+    private void printIndented(PrintWriter body, String indent, StringWriter block) {
+        for (String line : block.toString().split("\n")) {
+            body.println(line.isEmpty() ? line : indent + line);
+        }
+    }
+
+    private void pagingParameters(MethodBuilder method) {
+        offsetParameters(method);
+        method.parameter(type.key.type.boxed(), "after").annotate(QueryParam.class).value("after");
+    }
+
+    private void offsetParameters(MethodBuilder method) {
+        ParameterBuilder limit = method.parameter(int.class, "limit");
+        limit.annotate(QueryParam.class).value("limit");
+        limit.annotate(DefaultValue.class).value(Integer.toString(type.pageSize));
+        ParameterBuilder offset = method.parameter(int.class, "offset");
+        offset.annotate(QueryParam.class).value("offset");
+        offset.annotate(DefaultValue.class).value("0");
+    }
+
+    /** offset paging links back and forth, but more efficient keyset paging (after the last key) only forth */
+    private void pagingLinks(PrintWriter body, String elementType, String lastKey) {
+        body.println("boolean more = list.size() > limit;");
+        body.println("if (more) {");
+        body.println("    list = list.subList(0, limit);");
+        body.println("}");
+        body.println("ResponseBuilder response = Response.ok(list);");
+        body.println("if (after != null || offset > 0) {");
+        body.println("    UriBuilder first = uriInfo.getRequestUriBuilder().replaceQueryParam(\"after\");");
+        body.println("    response.link(first.replaceQueryParam(\"offset\").build(), \"first\");");
+        body.println("}");
+        body.println("if (offset > 0) {");
+        body.println("    UriBuilder prev = uriInfo.getRequestUriBuilder();");
+        body.println("    prev.replaceQueryParam(\"offset\", Math.max(0, offset - limit));");
+        body.println("    response.link(prev.build(), \"prev\");");
+        body.println("    if (more) {");
+        body.println("        UriBuilder next = uriInfo.getRequestUriBuilder();");
+        body.println("        response.link(next.replaceQueryParam(\"offset\", offset + limit).build(), \"next\");");
+        body.println("    }");
+        body.println("} else if (more) {");
+        body.println("    " + elementType + " last = list.get(limit - 1);");
+        body.println("    UriBuilder next = uriInfo.getRequestUriBuilder();");
+        body.println("    response.link(next.replaceQueryParam(\"after\", " + lastKey + ").build(), \"next\");");
+        body.println("}");
+        body.println("if (count) {");
+        body.println("    response.header(\"X-Total-Count\", count(" + store.em() + "queryParams));");
+        body.println("}");
+        body.println("return response.build();");
+    }
+
+    /** only offset paging links, for lists without a key to page after */
+    private void offsetPagingLinks(PrintWriter body, String count) {
+        body.println("boolean more = list.size() > limit;");
+        body.println("if (more) {");
+        body.println("    list = list.subList(0, limit);");
+        body.println("}");
+        body.println("ResponseBuilder response = Response.ok(list);");
+        body.println("if (offset > 0) {");
+        body.println("    UriBuilder first = uriInfo.getRequestUriBuilder().replaceQueryParam(\"offset\");");
+        body.println("    response.link(first.build(), \"first\");");
+        body.println("    UriBuilder prev = uriInfo.getRequestUriBuilder();");
+        body.println("    prev.replaceQueryParam(\"offset\", Math.max(0, offset - limit));");
+        body.println("    response.link(prev.build(), \"prev\");");
+        body.println("}");
+        body.println("if (more) {");
+        body.println("    UriBuilder next = uriInfo.getRequestUriBuilder();");
+        body.println("    response.link(next.replaceQueryParam(\"offset\", offset + limit).build(), \"next\");");
+        body.println("}");
+        body.println("if (count) {");
+        body.println("    response.header(\"X-Total-Count\", " + count + ");");
+        body.println("}");
+    }
+
+    private void listQueryMethod() {
+        classBuilder.field(new TypeString("java.util.List<java.lang.String>"), "RESERVED_QUERY_PARAMS").static_()
+                .final_().init("Arrays.asList(\"limit\", \"offset\", \"after\""
+                        + (type.streaming ? "" : ", \"fields\", \"count\"")
+                        + ((type.streaming || !expandable()) ? "" : ", \"expand\"") + ")");
+        MethodBuilder method = classBuilder.method(typedQuery(), "listQuery").private_();
+        store.entityManagerParameter(method);
+        queryParamsParameter(method);
+        method.parameter(type.key.type.boxed(), "after");
+        store.listQuery(method.body());
+
+        TypeString predicates = new TypeString("java.util.List<javax.persistence.criteria.Predicate>");
+        MethodBuilder where = classBuilder.method(predicates, "where").private_();
+        where.parameter(CriteriaBuilder.class, "builder");
+        where.parameter(new TypeString("javax.persistence.criteria.Root<" + type.qualified + ">"), "from");
+        queryParamsParameter(where);
+        store.where(where.body());
+
+        MethodBuilder filter = classBuilder.method(Predicate.class, "filter").private_();
+        filter.annotate(SuppressWarnings.class).value("unchecked");
+        filter.parameter(CriteriaBuilder.class, "builder");
+        filter.parameter(new TypeString("javax.persistence.criteria.Root<" + type.qualified + ">"), "from");
+        filter.parameter(String.class, "param");
+        filter.parameter(String.class, "value");
+        store.filter(filter.body());
+
+        convertMethod();
+    }
+
+    /** convert a query parameter to the type of the attribute; only known attributes are allowed */
+    private void convertMethod() {
+        MethodBuilder method = classBuilder.method(Comparable.class, "convert").private_();
+        method.annotate(SuppressWarnings.class).value("rawtypes");
+        method.parameter(String.class, "attribute");
+        method.parameter(String.class, "value");
+        try (PrintWriter body = method.body()) {
+            body.println("switch (attribute) {");
+            for (WebResourceField field : type.fields) {
+                String conversion = field.fromString("value");
+                if (conversion == null)
+                    continue;
+                body.println("case \"" + field.name + "\":");
+                if ("java.lang.Boolean".equals(field.type.boxed().raw)) {
+                    // Boolean.valueOf would take anything else as false
+                    body.println("    if (!\"true\".equalsIgnoreCase(value) && !\"false\".equalsIgnoreCase(value))");
+                    body.println("        throw new IllegalArgumentException(\"invalid boolean [\" + value + \"] for ["
+                            + field.name + "]\");");
+                }
+                body.println("    return " + conversion + ";");
+            }
+            body.println("default:");
+            body.println("    throw new IllegalArgumentException(\"unknown attribute [\" + attribute + \"]\");");
+            body.println("}");
+        }
+    }
+
+    private void queryParamsParameter(MethodBuilder method) {
+        method.parameter(new TypeString("javax.ws.rs.core.MultivaluedMap<java.lang.String, java.lang.String>"),
+                "queryParams");
+    }
+
+    /** the total number of entities matching the filter, cached for a few seconds */
+    private void countMethod() {
+        MethodBuilder method = classBuilder.method(long.class, "count").private_();
+        store.entityManagerParameter(method);
+        queryParamsParameter(method);
+        boolean cached = type.countCacheSeconds > 0;
+        if (cached) {
+            classBuilder.field(new TypeString(CountCache.class), "COUNTS").static_().final_()
+                    .init("new CountCache(" + (type.countCacheSeconds * 1000L) + ", 1000)");
+            classBuilder.using(CountCache.class);
         }
+        try (PrintWriter body = method.body()) {
+            if (cached) {
+                body.println("String filter = CountCache.filter(queryParams, RESERVED_QUERY_PARAMS);");
+                body.println("Long cached = COUNTS.get(filter);");
+                body.println("if (cached != null) {");
+                body.println("    return cached;");
+                body.println("}");
+            }
+            store.count(body);
+            if (cached)
+                body.println("COUNTS.put(filter, count);");
+            body.println("return count;");
+        }
+    }
+
+    private TypeString typedQuery() {
+        return new TypeString("javax.persistence.TypedQuery<" + type.qualified + ">");
     }
 
     private String logLine(String message, String... args) {
@@ -82,24 +569,163 @@ class WebResourceWriter {
     private void GET() {
         MethodBuilder method = classBuilder.method(Response.class, "get" + type.simple);
         method.annotate(GET.class);
+        readOnly(method, true);
         idParameter(method);
+        fieldsParameter(method);
+        if (expandable())
+            expandParameter(method);
         requestContextParameter(method);
         try (PrintWriter body = method.body()) {
             body.println(logLine("get " + type.lower + " {}", type.key.name));
             body.println();
-            findOrFail(body, "result");
+            reader(body, type.key.name);
+            evaluateConditions(body);
+            body.println("if (fields != null) {");
+            body.println("    return getFields(" + store.em() + type.key.name + ", fields);");
+            body.println("}");
+            if (expandable()) {
+                body.println("List<String> relations;");
+                body.println("try {");
+                body.println("    relations = relations(expand);");
+                invalidQueryParams(body);
+            }
+            findCachedOrFail(body);
+            if (expandable())
+                body.println("fetch(" + store.em() + "Collections.singletonList(result), relations);");
             evaluatePreconditions(body, "result");
             body.println();
-            body.println("return Response.ok(result)" + etag("result") + ".build();");
+            body.println("return Response.ok(result)" + validators("result") + ".build();");
+        }
+    }
+
+    private void getFieldsMethod() {
+        MethodBuilder method = classBuilder.method(Response.class, "getFields").private_();
+        store.entityManagerParameter(method);
+        method.parameter(type.key.type, type.key.name);
+        method.parameter(String.class, "fields");
+        try (PrintWriter body = method.body()) {
+            body.println("List<Map<String, Object>> rows;");
+            body.println("try {");
+            StringWriter query = new StringWriter();
+            store.findFields(new PrintWriter(query));
+            printIndented(body, "    ", query);
+            invalidQueryParams(body);
+            body.println("if (rows.isEmpty()) {");
+            body.println("    return Response.status(Status.NOT_FOUND).build();");
+            body.println("}");
+            body.println("return Response.ok(rows.get(0)).build();");
         }
     }
 
     private void requestContextParameter(MethodBuilder method) {
-        if (type.version != null) {
+        if (type.version != null || type.timestamp != null) {
             method.parameter(Request.class, "request").annotate(Context.class);
+            method.parameter(HttpHeaders.class, "headers").annotate(Context.class);
+        }
+    }
+
+    private void cache() {
+        classBuilder.field(new TypeString("com.github.t1.webresource.EntityCache<" + type.key.type.boxed().raw + ", "
+                + type.qualified + ">"), "CACHE").static_().final_()
+                .init("new EntityCache<>(\"" + type.qualified + "\", " + type.cacheSize + ")");
+        classBuilder.using(EntityCache.class);
+    }
+
+    /**
+     * The cached entities are shared by all requests, so they must not have relations that are fetched lazily or
+     * could be changed through another entity.
+     */
+    private boolean cached() {
+        return type.cacheSize > 0 && !expandable();
+    }
+
+    /** is there anything that other transactions may only see after the commit */
+    private boolean afterCommit() {
+        return cached() || type.timestamp != null;
+    }
+
+    private void afterCommitMethods() {
+        classBuilder.field(TransactionSynchronizationRegistry.class, "registry").annotate(Resource.class);
+        classBuilder.using(Resource.class).using(AfterCommit.class);
+        List<String> changed = new ArrayList<>();
+        if (cached())
+            changed.add("CACHE.remove(" + type.key.name + ");");
+        if (type.timestamp != null)
+            changed.add("CHANGES.changed();");
+        afterCommitMethod("afterCommit", changed);
+        if (type.timestamp != null)
+            afterCommitMethod("afterDelete", Arrays.asList("CHANGES.deleted(" + type.key.name + ");"));
+    }
+
+    private void afterCommitMethod(String name, List<String> statements) {
+        MethodBuilder method = classBuilder.method(void.class, name).private_();
+        method.parameter(type.key.type, type.key.name).final_();
+        try (PrintWriter body = method.body()) {
+            body.println("AfterCommit.run(registry, new Runnable() {");
+            body.println("    @Override");
+            body.println("    public void run() {");
+            for (String statement : statements)
+                body.println("        " + statement);
+            body.println("    }");
+            body.println("});");
+        }
+    }
+
+    private void findCachedOrFail(PrintWriter body) {
+        if (!cached()) {
+            findOrFail(body, "result");
+            return;
+        }
+        body.println(type.simple + " result = CACHE.get(" + type.key.name + ");");
+        body.println("if (result == null) {");
+        body.println("    long stamp = CACHE.stamp();");
+        body.println("    result = " + store.find() + ";");
+        body.println("    if (result == null) {");
+        body.println("        return Response.status(Status.NOT_FOUND).build();");
+        body.println("    }");
+        // a managed entity would see the changes of this persistence context before they are committed
+        body.println("    em.detach(result);");
+        body.println("    CACHE.put(" + type.key.name + ", result, stamp);");
+        body.println("}");
+    }
+
+    /** the cached entity is not valid any more after a change is committed */
+    private void invalidate(PrintWriter body) {
+        invalidate(body, "");
+    }
+
+    private void invalidate(PrintWriter body, String indent) {
+        if (afterCommit())
+            body.println(indent + "afterCommit(" + type.key.name + ");");
+        if (store.replicated())
+            body.println(indent + "WRITES.written(" + type.key.name + ");");
+    }
+
+    /** deleted entities can't be found by their timestamp, so the change feed keeps their keys */
+    private void tombstone(PrintWriter body, String indent) {
+        if (type.timestamp != null)
+            body.println(indent + "afterDelete(" + type.key.name + ");");
+    }
+
+    /** reads go to the replica, but not for entities written recently, so clients can read their own writes */
+    private void replication() {
+        classBuilder.field(new TypeString(RecentWrites.class), "WRITES").static_().final_()
+                .init("new RecentWrites(" + (type.readYourWritesSeconds * 1000L) + ", 10000)");
+        classBuilder.using(RecentWrites.class);
+
+        MethodBuilder method = classBuilder.method(EntityManager.class, "reader").private_();
+        method.parameter(Object.class, "key");
+        try (PrintWriter body = method.body()) {
+            body.println("return WRITES.isRecent(key) ? em : replica;");
         }
     }
 
+    /** the entity manager to read with, for one entity or, if the key is <code>null</code>, for lists */
+    private void reader(PrintWriter body, String key) {
+        if (store.replicated())
+            body.println("EntityManager em = reader(" + key + ");");
+    }
+
     private void findOrFail(PrintWriter body, String variableName) {
         store.find(body, variableName);
         body.println("if (" + variableName + " == null) {");
@@ -107,16 +733,99 @@ class WebResourceWriter {
         body.println("}");
     }
 
-    private String etag(String var) {
-        return (type.version == null) ? "" : ".tag(Objects.toString(" + var + "." + type.version.getter() + "()))";
+    /** the entity tag from the version and the last modified date from the timestamp, if there are any */
+    private String validators(String var) {
+        if (type.version == null)
+            return lastModified(var);
+        return ".tag(Objects.toString(" + var + "." + type.version.getter() + "()))" + lastModified(var);
+    }
+
+    private String lastModified(String var) {
+        if (type.timestamp == null)
+            return "";
+        return ".lastModified(" + date(var + "." + type.timestamp.getter() + "()") + ")";
+    }
+
+    /** the timestamp <code>value</code> as a {@link java.util.Date} */
+    private String date(String value) {
+        switch (type.timestamp.type.raw) {
+            case "java.util.Date":
+                return value;
+            case "java.lang.Long":
+                return "(" + value + " == null) ? null : new Date(" + value + ")";
+            default:
+                return "new Date(" + value + ")";
+        }
     }
 
     private void findByKeyMethod() {
         MethodBuilder method = classBuilder.method(type.type, "findByKey").private_();
+        store.entityManagerParameter(method);
         method.parameter(type.key.type, type.key.name);
         store.findByKey(method.body());
     }
 
+    private void preconditionMethods() {
+        MethodBuilder findVersion = classBuilder.method(type.version.type.boxed(), "findVersion").private_();
+        store.entityManagerParameter(findVersion);
+        findVersion.parameter(type.key.type, type.key.name);
+        store.findVersion(findVersion.body());
+
+        MethodBuilder method = classBuilder.method(new TypeString("javax.ws.rs.core.Response.ResponseBuilder"),
+                "evaluateVersion").private_();
+        store.entityManagerParameter(method);
+        method.parameter(type.key.type, type.key.name);
+        method.parameter(Request.class, "request");
+        method.parameter(HttpHeaders.class, "headers");
+        try (PrintWriter body = method.body()) {
+            body.println("if (headers.getHeaderString(HttpHeaders.IF_NONE_MATCH) == null");
+            body.println("        && headers.getHeaderString(HttpHeaders.IF_MATCH) == null) {");
+            body.println("    return null;");
+            body.println("}");
+            body.println(type.version.type.boxed().simple + " version = findVersion(" + store.em()
+                    + type.key.name + ");");
+            body.println("if (version == null) {");
+            body.println("    return Response.status(Status.NOT_FOUND);");
+            body.println("}");
+            body.println("return request.evaluatePreconditions(new EntityTag(" + toString("version") + "));");
+        }
+    }
+
+    private void lastModifiedMethods() {
+        String timestamp = type.timestamp.type.boxed().simple;
+        MethodBuilder findTimestamp = classBuilder.method(type.timestamp.type.boxed(), "findTimestamp").private_();
+        store.entityManagerParameter(findTimestamp);
+        findTimestamp.parameter(type.key.type, type.key.name);
+        store.findTimestamp(findTimestamp.body());
+
+        MethodBuilder method = classBuilder.method(new TypeString("javax.ws.rs.core.Response.ResponseBuilder"),
+                "evaluateLastModified").private_();
+        store.entityManagerParameter(method);
+        method.parameter(type.key.type, type.key.name);
+        method.parameter(Request.class, "request");
+        method.parameter(HttpHeaders.class, "headers");
+        classBuilder.using(Date.class);
+        try (PrintWriter body = method.body()) {
+            body.println("if (headers.getHeaderString(HttpHeaders.IF_MODIFIED_SINCE) == null");
+            body.println("        && headers.getHeaderString(HttpHeaders.IF_UNMODIFIED_SINCE) == null) {");
+            body.println("    return null;");
+            body.println("}");
+            if (type.version != null) {
+                body.println("if (headers.getHeaderString(HttpHeaders.IF_NONE_MATCH) != null");
+                body.println("        || headers.getHeaderString(HttpHeaders.IF_MATCH) != null) {");
+                body.println("    return null; // the entity tag takes precedence");
+                body.println("}");
+            }
+            body.println(timestamp + " modified = findTimestamp(" + store.em() + type.key.name + ");");
+            body.println("if (modified == null) {");
+            body.println("    return null;");
+            body.println("}");
+            String millis = "java.util.Date".equals(type.timestamp.type.raw) ? "modified.getTime()" : "modified";
+            body.println("// HTTP dates have whole seconds, so the Last-Modified a client sends back is rounded down");
+            body.println("return request.evaluatePreconditions(new Date(" + millis + " / 1000 * 1000));");
+        }
+    }
+
     private void POST() {
         MethodBuilder method = classBuilder.method(Response.class, "post" + type.simple);
         method.annotate(POST.class);
@@ -126,12 +835,42 @@ class WebResourceWriter {
         try (PrintWriter body = method.body()) {
             body.println(logLine("post " + type.lower + " {}", type.lower));
             body.println();
+            store.touch(body, type.lower);
             store.persist(body);
+            if (store.replicated())
+                body.println("WRITES.written(" + type.lower + "." + type.key.getter() + "());");
+            if (afterCommit())
+                body.println("afterCommit(" + type.lower + "." + type.key.getter() + "());");
             body.println();
             body.println("UriBuilder builder = uriInfo.getBaseUriBuilder();");
             body.println("builder.path(\"" + type.plural + "\").path("
                     + toString(type.lower + "." + type.key.getter() + "()") + ");");
-            body.println("return Response.created(builder.build())" + etag(type.lower) + ".build();");
+            body.println("return Response.created(builder.build())" + validators(type.lower) + ".build();");
+        }
+    }
+
+    private void BULK() {
+        MethodBuilder method = classBuilder.method(Response.class, "post" + type.simple + "Bulk");
+        method.annotate(POST.class);
+        method.annotate(Path.class).value("/bulk");
+        method.parameter(new TypeString("java.util.List<" + type.qualified + ">"), type.plural);
+
+        String keys = "List<" + type.key.type.boxed().simple + ">";
+        try (PrintWriter body = method.body()) {
+            body.println(logLine("post {} " + type.plural, type.plural + ".size()"));
+            body.println();
+            store.persistAll(body);
+            body.println();
+            body.println(keys + " keys = new ArrayList<>();");
+            body.println("for (" + type.simple + " " + type.lower + " : " + type.plural + ") {");
+            body.println("    keys.add(" + type.lower + "." + type.key.getter() + "());");
+            if (afterCommit())
+                body.println("    afterCommit(" + type.lower + "." + type.key.getter() + "());");
+            if (store.replicated())
+                body.println("    WRITES.written(" + type.lower + "." + type.key.getter() + "());");
+            body.println("}");
+            body.println("return Response.status(Status.CREATED).entity(new GenericEntity<" + keys
+                    + ">(keys) {}).build();");
         }
     }
 
@@ -160,6 +899,115 @@ class WebResourceWriter {
         return "Objects.toString(" + name + ")";
     }
 
+    /**
+     * the entities for a list of keys in their order; the keys not found are listed in one header, separated by
+     * commas. It's a POST only to send the keys in the body, so it's read-only and reads from the replica.
+     */
+    private void BATCH_GET() {
+        MethodBuilder method = classBuilder.method(Response.class, "get" + type.simple + "Batch");
+        method.annotate(POST.class);
+        method.annotate(Path.class).value("/batch-get");
+        readOnly(method, true);
+        String key = type.key.type.boxed().simple;
+        method.parameter(new TypeString("java.util.List<" + type.key.type.boxed().raw + ">"), "keys");
+        try (PrintWriter body = method.body()) {
+            body.println(logLine("batch get " + type.plural + " {}", "keys"));
+            body.println();
+            body.println("if (keys == null || keys.isEmpty()) {");
+            body.println("    return Response.status(Status.BAD_REQUEST).entity(\"no keys\").build();");
+            body.println("}");
+            reader(body, "null");
+            store.findByKeys(body);
+            body.println();
+            body.println("List<" + type.simple + "> list = new ArrayList<>();");
+            body.println("StringBuilder missing = new StringBuilder();");
+            body.println("for (" + key + " key : keys) {");
+            body.println("    " + type.simple + " " + type.lower + " = found.get(key);");
+            body.println("    if (" + type.lower + " == null) {");
+            body.println("        missing.append((missing.length() == 0) ? \"\" : \",\").append(key);");
+            body.println("    } else {");
+            body.println("        list.add(" + type.lower + ");");
+            body.println("    }");
+            body.println("}");
+            body.println("ResponseBuilder response = Response.ok(new GenericEntity<List<" + type.simple
+                    + ">>(list) {});");
+            body.println("if (missing.length() > 0) {");
+            body.println("    response.header(\"X-Missing-Keys\", missing.toString());");
+            body.println("}");
+            body.println("return response.build();");
+        }
+    }
+
+    /**
+     * The entities changed and the keys of the entities deleted since a timestamp, optionally waiting for changes, and
+     * a link to the next changes. Long waits must not count for the concurrency limit.
+     */
+    private void CHANGES() {
+        classBuilder.field(new TypeString(ChangeFeed.class), "CHANGES").static_().final_()
+                .init("new ChangeFeed(" + (type.changesRetentionSeconds * 1000L) + ", 10000, "
+                        + (type.changesLagSeconds * 1000L) + ")");
+        classBuilder.using(ChangeFeed.class);
+
+        MethodBuilder method = classBuilder.method(Response.class, "get" + type.simple + "Changes");
+        method.annotate(GET.class);
+        method.annotate(Path.class).value("/changes");
+        readOnly(method, false);
+        if (type.concurrencyLimit > 0) {
+            unlimitedMethods.add(method);
+            classBuilder.using(ExcludeClassInterceptors.class);
+        }
+        ParameterBuilder since = method.parameter(long.class, "since");
+        since.annotate(QueryParam.class).value("since");
+        since.annotate(DefaultValue.class).value("0");
+        method.parameter(type.key.type.boxed(), "after").annotate(QueryParam.class).value("after");
+        ParameterBuilder wait = method.parameter(int.class, "wait");
+        wait.annotate(QueryParam.class).value("wait");
+        wait.annotate(DefaultValue.class).value("0");
+        uriInfoParameter(method);
+        String list = "List<" + type.simple + ">";
+        try (PrintWriter body = method.body()) {
+            body.println(logLine("get changes of " + type.plural + " since {} after {}", "since", "after"));
+            body.println();
+            body.println("if (since > 0 && since < CHANGES.oldest()) {");
+            body.println("    String message = \"deletions before \" + CHANGES.oldest() + \" are not available\";");
+            body.println("    return Response.status(Status.GONE).entity(message).build();");
+            body.println("}");
+            body.println("long until = CHANGES.until(since);");
+            body.println(list + " list = changedBetween(since, after, until);");
+            body.println("if (list.isEmpty() && CHANGES.deleted(since, until).isEmpty() && wait > 0");
+            body.println("        && CHANGES.await(since, wait * 1000L)) {");
+            body.println("    until = CHANGES.until(since);");
+            body.println("    list = changedBetween(since, after, until);");
+            body.println("}");
+            body.println();
+            // a full page ends at its last change, and the next page continues after its key
+            body.println("UriBuilder next = uriInfo.getRequestUriBuilder().replaceQueryParam(\"after\");");
+            body.println("if (list.size() > " + type.pageSize + ") {");
+            body.println("    list = list.subList(0, " + type.pageSize + ");");
+            body.println("    " + type.simple + " last = list.get(" + (type.pageSize - 1) + ");");
+            String timestamp = "last." + type.timestamp.getter() + "()";
+            if ("java.util.Date".equals(type.timestamp.type.raw))
+                timestamp += ".getTime()";
+            body.println("    until = " + timestamp + ";");
+            body.println("    next.replaceQueryParam(\"after\", last." + type.key.getter() + "());");
+            body.println("}");
+            body.println("next.replaceQueryParam(\"since\", until);");
+            body.println();
+            body.println("ResponseBuilder response = Response.ok(new GenericEntity<" + list + ">(list) {});");
+            body.println("for (Object key : CHANGES.deleted(since, until)) {");
+            body.println("    response.header(\"X-Deleted-Keys\", key);");
+            body.println("}");
+            body.println("return response.link(next.build(), \"next\").build();");
+        }
+
+        MethodBuilder changedBetween = classBuilder.method(new TypeString("java.util.List<" + type.qualified + ">"),
+                "changedBetween").private_();
+        changedBetween.parameter(long.class, "since");
+        changedBetween.parameter(type.key.type.boxed(), "after");
+        changedBetween.parameter(long.class, "until");
+        store.changedBetween(changedBetween.body(), type.pageSize + 1);
+    }
+
     private void PUT() {
         MethodBuilder method = classBuilder.method(Response.class, "put" + type.simple);
         method.annotate(PUT.class);
@@ -183,9 +1031,14 @@ class WebResourceWriter {
                     + type.key.name + "\";");
             body.println("    return Response.status(Status.BAD_REQUEST).entity(message).build();");
             body.println("}");
+            evaluateConditions(body);
+            if (store.canUpdateByKey()) {
+                updateByKey(body);
+                return;
+            }
             if (!type.primary()) {
                 body.println("if (" + type.lower + "." + type.id.getter() + "() == null) {");
-                body.println("    " + type.simple + " existing = findByKey(" + type.key.name + ");");
+                body.println("    " + type.simple + " existing = findByKey(" + store.em() + type.key.name + ");");
                 body.println("    if (existing == null) {");
                 body.println("        return Response.status(Status.NOT_FOUND).build();");
                 body.println("    }");
@@ -200,7 +1053,9 @@ class WebResourceWriter {
             }
             evaluatePreconditions(body, type.lower);
             body.println();
+            store.touch(body, type.lower);
             store.merge(body);
+            invalidate(body);
             body.println();
             body.println("if (result == null) {");
             if (type.primary()) {
@@ -210,8 +1065,32 @@ class WebResourceWriter {
                         + " \" + " + type.key.name + ");");
             }
             body.println("}");
-            body.println("return Response.ok(result)" + etag("result") + ".build();");
+            body.println("return Response.ok(result)" + validators("result") + ".build();");
+        }
+    }
+
+    /**
+     * conditional requests fail with only the version or timestamp loaded, i.e. without the entity and its
+     * associations
+     */
+    private void evaluateConditions(PrintWriter out) {
+        if (type.version == null && type.timestamp == null)
+            return;
+        String arguments = "(" + store.em() + type.key.name + ", request, headers);";
+        if (type.version != null) {
+            out.println("ResponseBuilder conditional = evaluateVersion" + arguments);
+            if (type.timestamp != null) {
+                out.println("if (conditional == null) {");
+                out.println("    conditional = evaluateLastModified" + arguments);
+                out.println("}");
+            }
+        } else {
+            out.println("ResponseBuilder conditional = evaluateLastModified" + arguments);
         }
+        out.println("if (conditional != null) {");
+        out.println("    return conditional.build();");
+        out.println("}");
+        out.println();
     }
 
     private void evaluatePreconditions(PrintWriter out, String entity) {
@@ -225,26 +1104,271 @@ class WebResourceWriter {
         out.println("}");
     }
 
+    /**
+     * one conditional update instead of a find and a merge; no rows updated means not found or a stale version. The
+     * request body lacks e.g. the id, so it's not what's stored, and only the validators are returned.
+     */
+    private void updateByKey(PrintWriter body) {
+        store.updateByKey(body);
+        invalidate(body);
+        body.println();
+        body.println("if (updated == 0) {");
+        if (type.version != null) {
+            body.println("    if (expected != null && findVersion(" + store.em() + type.key.name + ") != null) {");
+            body.println("        return Response.status(Status.PRECONDITION_FAILED).build();");
+            body.println("    }");
+        }
+        body.println("    return Response.status(Status.NOT_FOUND).build();");
+        body.println("}");
+        if (type.version == null) {
+            body.println("return Response.noContent()" + lastModified(type.lower) + ".build();");
+        } else {
+            String version = type.version.type.boxed().simple;
+            body.println(version + " version = (expected == null) ? findVersion(" + store.em() + type.key.name
+                    + ") : " + version + ".valueOf(expected + 1);");
+            body.println("return Response.noContent().tag(" + toString("version") + ")" + lastModified(type.lower)
+                    + ".build();");
+        }
+    }
+
+    /**
+     * form-encoded values for the basic fields, updated without loading the entity; unless the version can't be
+     * incremented in JPQL
+     */
+    private void PATCH() {
+        List<String> patchable = new ArrayList<>();
+        for (WebResourceField field : store.patchableFields())
+            patchable.add("\"" + field.name + "\"");
+        boolean loaded = type.version != null && !store.canIncrementVersion();
+        classBuilder.field(new TypeString("java.util.List<java.lang.String>"), "PATCHABLE").static_().final_()
+                .init("Arrays.asList(" + join(patchable) + ")");
+
+        MethodBuilder method = classBuilder.method(Response.class, "patch" + type.simple);
+        method.annotate(PATCH.class);
+        classBuilder.using(PATCH.class);
+        idParameter(method);
+        method.annotate(Consumes.class).value(MediaType.APPLICATION_FORM_URLENCODED);
+        method.parameter(new TypeString("javax.ws.rs.core.MultivaluedMap<java.lang.String, java.lang.String>"),
+                "form");
+        if (type.version != null)
+            method.parameter(HttpHeaders.class, "headers").annotate(Context.class);
+        try (PrintWriter body = method.body()) {
+            body.println(logLine("patch " + type.lower + " {}: {}", type.key.name, "form"));
+            body.println();
+            body.println("Map<String, Object> values = new LinkedHashMap<>();");
+            if (type.version != null)
+                body.println((loaded ? "String" : type.version.type.boxed().simple) + " expected = null;");
+            body.println("try {");
+            body.println("    for (Map.Entry<String, List<String>> param : form.entrySet()) {");
+            body.println("        if (!PATCHABLE.contains(param.getKey()))");
+            body.println("            throw new IllegalArgumentException(\"can't patch [\" + param.getKey() + \"]\");");
+            body.println("        values.put(param.getKey(), convert(param.getKey(), param.getValue().get(0)));");
+            body.println("    }");
+            if (type.version != null) {
+                body.println("    String ifMatch = headers.getHeaderString(HttpHeaders.IF_MATCH);");
+                body.println("    if (ifMatch != null && !\"*\".equals(ifMatch.trim())) {");
+                String eTag = "EntityTag.valueOf(ifMatch).getValue()";
+                body.println("        expected = " + (loaded ? eTag : type.version.fromString(eTag)) + ";");
+                body.println("    }");
+            }
+            invalidQueryParams(body);
+            body.println("if (values.isEmpty()) {");
+            body.println("    return Response.status(Status.BAD_REQUEST).entity(\"nothing to patch\").build();");
+            body.println("}");
+            body.println();
+            if (loaded)
+                store.patchLoaded(body);
+            else
+                store.patch(body);
+            invalidate(body);
+            body.println();
+            body.println("if (updated == 0) {");
+            if (type.version != null) {
+                body.println("    if (expected != null && findVersion(" + store.em() + type.key.name + ") != null) {");
+                body.println("        return Response.status(Status.PRECONDITION_FAILED).build();");
+                body.println("    }");
+            }
+            body.println("    return Response.status(Status.NOT_FOUND).build();");
+            body.println("}");
+            if (type.version == null) {
+                body.println("return Response.noContent().build();");
+            } else {
+                body.println("return Response.noContent().tag("
+                        + toString("findVersion(" + store.em() + type.key.name + ")") + ").build();");
+            }
+        }
+    }
+
+    private String join(List<String> items) {
+        StringBuilder out = new StringBuilder();
+        for (String item : items) {
+            if (out.length() > 0)
+                out.append(", ");
+            out.append(item);
+        }
+        return out.toString();
+    }
+
+    /**
+     * With <code>?return=minimal</code>, the deleted entity is not returned, so without a version to check, it doesn't
+     * have to be loaded either.
+     */
     private void DELETE() {
         MethodBuilder method = classBuilder.method(Response.class, "delete" + type.simple);
         method.annotate(DELETE.class);
         idParameter(method);
+        method.parameter(String.class, "representation").annotate(QueryParam.class).value("return");
         requestContextParameter(method);
         try (PrintWriter body = method.body()) {
             body.println(logLine("delete " + type.lower + " {}", type.key.name));
             body.println();
+            evaluateConditions(body);
+            if (store.canDeleteByKey()) {
+                body.println("if (\"minimal\".equals(representation)) {");
+                StringWriter delete = new StringWriter();
+                store.deleteByKey(new PrintWriter(delete));
+                printIndented(body, "    ", delete);
+                tombstone(body, "    ");
+                invalidate(body, "    ");
+                body.println("    if (deleted == 0) {");
+                body.println("        return Response.status(Status.NOT_FOUND).build();");
+                body.println("    }");
+                body.println("    return Response.noContent().build();");
+                body.println("}");
+                body.println();
+            } else if (store.canRemoveReference()) {
+                body.println("if (\"minimal\".equals(representation)) {");
+                body.println("    if (!exists(" + store.em() + type.key.name + ")) {");
+                body.println("        return Response.status(Status.NOT_FOUND).build();");
+                body.println("    }");
+                StringWriter remove = new StringWriter();
+                store.removeReference(new PrintWriter(remove));
+                printIndented(body, "    ", remove);
+                tombstone(body, "    ");
+                invalidate(body, "    ");
+                body.println("    return Response.noContent().build();");
+                body.println("}");
+                body.println();
+            }
             findOrFail(body, "result");
             evaluatePreconditions(body, "result");
             body.println();
             store.remove(body);
+            tombstone(body, "");
+            invalidate(body);
+            body.println();
+            if (type.version != null) {
+                body.println("if (\"minimal\".equals(representation)) {");
+                body.println("    return Response.noContent()" + validators("result") + ".build();");
+                body.println("}");
+            }
+            body.println("return Response.ok(result)" + validators("result") + ".build();");
+        }
+    }
+
+    private void existsMethod() {
+        MethodBuilder method = classBuilder.method(boolean.class, "exists").private_();
+        store.entityManagerParameter(method);
+        method.parameter(type.key.type, type.key.name);
+        store.exists(method.body());
+    }
+
+    /**
+     * only the version or the existence, without loading or marshalling the entity. There's no HEAD for the list:
+     * JAX-RS answers it with the GET without the body, so the headers (e.g. the links or the total count) are the same.
+     */
+    private void HEAD() {
+        MethodBuilder method = classBuilder.method(Response.class, "head" + type.simple);
+        method.annotate(HEAD.class);
+        readOnly(method, false);
+        idParameter(method);
+        validatorParameters(method);
+        try (PrintWriter body = method.body()) {
+            body.println(logLine("head " + type.lower + " {}", type.key.name));
             body.println();
-            body.println("return Response.ok(result)" + etag("result") + ".build();");
+            reader(body, type.key.name);
+            if (type.version == null) {
+                body.println("if (!exists(" + store.em() + type.key.name + ")) {");
+                body.println("    return Response.status(Status.NOT_FOUND).build();");
+                body.println("}");
+            } else {
+                String version = type.version.type.boxed().simple;
+                body.println(version + " version = findVersion(" + store.em() + type.key.name + ");");
+                body.println("if (version == null) {");
+                body.println("    return Response.status(Status.NOT_FOUND).build();");
+                body.println("}");
+                body.println("EntityTag eTag = new EntityTag(" + toString("version") + ");");
+                body.println("ResponseBuilder failed = request.evaluatePreconditions(eTag);");
+                body.println("if (failed != null) {");
+                body.println("    return failed.build();");
+                body.println("}");
+            }
+            // the same validators as GET, so HEAD can be used to revalidate
+            lastModifiedConditions(body);
+            String lastModified = findLastModified(body);
+            body.println("return Response.ok()" + ((type.version == null) ? "" : ".tag(eTag)") + lastModified
+                    + ".build();");
+        }
+    }
+
+    /** the request to evaluate the entity tag, and the headers, if there are date conditions, too */
+    private void validatorParameters(MethodBuilder method) {
+        if (type.timestamp != null)
+            requestContextParameter(method);
+        else if (type.version != null)
+            method.parameter(Request.class, "request").annotate(Context.class);
+    }
+
+    /** evaluate the date conditions, if there is a timestamp; the entity tag has to be evaluated before */
+    private void lastModifiedConditions(PrintWriter body) {
+        if (type.timestamp == null)
+            return;
+        body.println("ResponseBuilder conditional = evaluateLastModified(" + store.em() + type.key.name
+                + ", request, headers);");
+        body.println("if (conditional != null) {");
+        body.println("    return conditional.build();");
+        body.println("}");
+    }
+
+    /** find the timestamp without loading the entity, and return the builder call to send it */
+    private String findLastModified(PrintWriter body) {
+        if (type.timestamp == null)
+            return "";
+        body.println(type.timestamp.type.boxed().simple + " modified = findTimestamp(" + store.em() + type.key.name
+                + ");");
+        String date = "java.util.Date".equals(type.timestamp.type.raw) ? "modified"
+                : "(modified == null) ? null : new Date(modified)";
+        return ".lastModified(" + date + ")";
+    }
+
+    private void OPTIONS() {
+        allow("ALLOW_LIST", "GET, HEAD, OPTIONS, POST");
+        MethodBuilder list = classBuilder.method(Response.class, "options" + type.simple + "List");
+        list.annotate(OPTIONS.class);
+        try (PrintWriter body = list.body()) {
+            body.println("return Response.ok().header(HttpHeaders.ALLOW, ALLOW_LIST).build();");
+        }
+
+        allow("ALLOW", "DELETE, GET, HEAD, OPTIONS, PATCH, PUT");
+        MethodBuilder method = classBuilder.method(Response.class, "options" + type.simple);
+        method.annotate(OPTIONS.class);
+        method.annotate(Path.class).value("/{id}");
+        try (PrintWriter body = method.body()) {
+            body.println("return Response.ok().header(HttpHeaders.ALLOW, ALLOW).build();");
         }
     }
 
+    private void allow(String name, String methods) {
+        classBuilder.field(new TypeString("java.lang.String"), name).static_().final_().init("\"" + methods + "\"");
+    }
+
     private void subresources() {
         for (WebResourceField subresource : type.subResourceFields) {
-            subGET(subresource);
+            if (subresource.type.isCollection) {
+                subLIST(subresource);
+            } else {
+                subGET(subresource);
+            }
             if (subresource.type.isCollection) {
                 subPOST(subresource);
             }
@@ -258,18 +1382,68 @@ class WebResourceWriter {
     private void subGET(WebResourceField subresource) {
         MethodBuilder method = classBuilder.method(Response.class, "get" + type.simple + subresource.uppercaps());
         method.annotate(GET.class);
+        readOnly(method, true);
         idParameter(method, subresource.name);
         requestContextParameter(method);
         try (PrintWriter body = method.body()) {
             body.println(logLine("get " + subresource.name + " from " + type.lower + " {}", type.key.name));
             body.println();
-            findOrFail(body, "result");
+            reader(body, type.key.name);
+            evaluateConditions(body);
+            findCachedOrFail(body);
             evaluatePreconditions(body, "result");
             body.println();
-            body.println("return Response.ok(result." + subresource.getter() + "())" + etag("result") + ".build();");
+            body.println("return Response.ok(result." + subresource.getter() + "())" + validators("result")
+                    + ".build();");
+        }
+    }
+
+    /** one page of the collection, queried by a join, so neither the entity nor the whole collection is loaded */
+    private void subLIST(WebResourceField subresource) {
+        MethodBuilder method = classBuilder.method(Response.class, "get" + type.simple + subresource.uppercaps());
+        method.annotate(GET.class);
+        readOnly(method, false);
+        idParameter(method, subresource.name);
+        offsetParameters(method);
+        countParameter(method);
+        uriInfoParameter(method);
+        validatorParameters(method);
+        try (PrintWriter body = method.body()) {
+            body.println(logLine("get " + subresource.name + " from " + type.lower + " {}", type.key.name));
+            body.println();
+            reader(body, type.key.name);
+            invalidPaging(body);
+            if (type.version != null) {
+                body.println(type.version.type.boxed().simple + " version = findVersion(" + store.em()
+                        + type.key.name + ");");
+                body.println("if (version == null) {");
+                body.println("    return Response.status(Status.NOT_FOUND).build();");
+                body.println("}");
+                body.println("EntityTag eTag = new EntityTag(" + toString("version") + ");");
+                body.println("ResponseBuilder failed = request.evaluatePreconditions(eTag);");
+                body.println("if (failed != null) {");
+                body.println("    return failed.build();");
+                body.println("}");
+            }
+            lastModifiedConditions(body);
+            store.listSubresource(body, subresource);
+            if (type.version == null) {
+                body.println("if (list.isEmpty() && !exists(" + store.em() + type.key.name + ")) {");
+                body.println("    return Response.status(Status.NOT_FOUND).build();");
+                body.println("}");
+            }
+            body.println();
+            offsetPagingLinks(body, store.countSubresource(subresource));
+            String lastModified = findLastModified(body);
+            body.println("return response" + ((type.version == null) ? "" : ".tag(eTag)") + lastModified
+                    + ".build();");
         }
     }
 
+    /**
+     * Add one element without loading the collection. If the elements own the relation, the reference to the entity
+     * is set without loading it either; see {@link JpaStoreWriter#canAddToOwner(WebResourceField)}.
+     */
     private void subPOST(WebResourceField subresource) {
         MethodBuilder method = classBuilder.method(Response.class, "add" + type.simple + subresource.uppercaps());
         method.annotate(POST.class);
@@ -280,10 +1454,29 @@ class WebResourceWriter {
             body.println(logLine("post " + subresource.name + " {} for " + type.lower + " {}", subresource.name,
                     type.key.name));
             body.println();
-            findOrFail(body, type.lower);
-            body.println();
-            body.println(type.lower + "." + subresource.getter() + "().add(" + subresource.name + ");");
+            if (store.canAddToOwner(subresource)) {
+                if (store.canTouchByKey()) {
+                    // an ETag or Last-Modified of the entity must not match any more
+                    store.touchByKey(body);
+                    body.println("if (touched == 0) {");
+                } else {
+                    body.println("if (!exists(" + store.em() + type.key.name + ")) {");
+                }
+                body.println("    return Response.status(Status.NOT_FOUND).build();");
+                body.println("}");
+                body.println();
+                store.addToOwner(body, subresource);
+            } else {
+                // JPA can't insert into a join table or element collection directly, and calling the getter of an
+                // em.getReference would load the entity anyway, only without the 404 for a missing one
+                findOrFail(body, type.lower);
+                body.println();
+                // a lazy collection is not initialized, if the provider can queue the add, e.g. extra-lazy or inverse
+                body.println(type.lower + "." + subresource.getter() + "().add(" + subresource.name + ");");
+                store.touch(body, type.lower);
+            }
             store.flush(body);
+            invalidate(body);
             body.println();
             body.println("UriBuilder builder = uriInfo.getBaseUriBuilder();");
             body.println("builder.path(\"" + type.plural + "\").path(" + toString(type.key.name) + ").path(\""
@@ -297,23 +1490,54 @@ class WebResourceWriter {
         method.annotate(PUT.class);
         idParameter(method, subresource.name);
         requestContextParameter(method);
-        ParameterBuilder parameter = method.parameter(subresource.type, subresource.name);
-        if (subresource.type.isCollection)
-            parameter.generic(subresource.type.uncollected.simple);
+        method.parameter(subresource.type, subresource.name);
         try (PrintWriter body = method.body()) {
             body.println(logLine("put " + subresource.name + " {} of " + type.lower + " {}", subresource.name,
                     type.key.name));
             body.println();
+            evaluateConditions(body);
             findOrFail(body, type.lower);
             evaluatePreconditions(body, type.lower);
             body.println();
-            body.println(type.lower + "." + subresource.setter() + "(" + subresource.name + ");");
+            if (subresource.type.isCollection) {
+                replaceElements(body, subresource);
+            } else {
+                body.println(type.lower + "." + subresource.setter() + "(" + subresource.name + ");");
+            }
+            store.touch(body, type.lower);
             store.flush(body);
+            invalidate(body);
             body.println();
-            body.println("return Response.ok(" + subresource.name + ")" + etag(type.lower) + ".build();");
+            body.println("return Response.ok(" + subresource.name + ")" + validators(type.lower) + ".build();");
         }
     }
 
+    /**
+     * Change the managed collection in place, so the provider only writes the difference; a new collection instance
+     * would be written as a delete of all elements and an insert of all new elements. Lists keep the new order.
+     */
+    private void replaceElements(PrintWriter body, WebResourceField subresource) {
+        String element = subresource.type.uncollected.simple;
+        body.println(subresource.type.simple + "<" + element + "> current = " + type.lower + "."
+                + subresource.getter() + "();");
+        body.println("if (current == null || " + subresource.name + " == null) {");
+        body.println("    " + type.lower + "." + subresource.setter() + "(" + subresource.name + ");");
+        if ("List".equals(subresource.type.simple)) {
+            body.println("} else if (!current.equals(" + subresource.name + ")) {");
+            body.println("    current.clear();");
+            body.println("    current.addAll(" + subresource.name + ");");
+        } else {
+            body.println("} else {");
+            body.println("    current.retainAll(" + subresource.name + ");");
+            body.println("    for (" + element + " element : " + subresource.name + ") {");
+            body.println("        if (!current.contains(element)) {");
+            body.println("            current.add(element);");
+            body.println("        }");
+            body.println("    }");
+        }
+        body.println("}");
+    }
+
     private void subDELETE(WebResourceField subresource) {
         MethodBuilder method = classBuilder.method(Response.class, "delete" + type.simple + subresource.uppercaps());
         method.annotate(DELETE.class);
@@ -322,13 +1546,16 @@ class WebResourceWriter {
         try (PrintWriter body = method.body()) {
             body.println(logLine("delete " + subresource.name + " of " + type.lower + " {}", type.key.name));
             body.println();
+            evaluateConditions(body);
             findOrFail(body, type.lower);
             evaluatePreconditions(body, type.lower);
             body.println();
             body.println(type.lower + "." + subresource.setter() + "(null);");
+            store.touch(body, type.lower);
             store.flush(body);
+            invalidate(body);
             body.println();
-            body.println("return Response.ok()" + etag(type.lower) + ".build();");
+            body.println("return Response.ok()" + validators(type.lower) + ".build();");
         }
     }
 }
@@ -17,4 +17,19 @@ public class AnnotatableBuilder {
         annotations.add(builder);
         return builder;
     }
+
+    public boolean isAnnotated(Class<? extends Annotation> type) {
+        for (AnnotationBuilder annotation : annotations)
+            if (annotation.type == type)
+                return true;
+        return false;
+    }
+
+    /** Is there an annotation that is itself annotated as the <code>metaAnnotation</code> */
+    public boolean isAnnotatedWith(Class<? extends Annotation> metaAnnotation) {
+        for (AnnotationBuilder annotation : annotations)
+            if (annotation.type.isAnnotationPresent(metaAnnotation))
+                return true;
+        return false;
+    }
 }
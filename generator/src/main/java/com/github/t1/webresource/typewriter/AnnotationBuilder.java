@@ -5,7 +5,7 @@ import java.util.*;
 
 public class AnnotationBuilder implements Builder {
     final Class<? extends Annotation> type;
-    final Map<String, Object> parameters = new HashMap<>();
+    final Map<String, Object> parameters = new LinkedHashMap<>();
     private final List<Class<?>> types = new ArrayList<>();
 
     public AnnotationBuilder(Class<? extends Annotation> type) {
@@ -17,6 +17,19 @@ public class AnnotationBuilder implements Builder {
         parameters.put("value", value);
     }
 
+    public void value(Enum<?> enumValue) {
+        parameters.put("value", enumValue);
+    }
+
+    public void value(Class<?> classValue) {
+        parameters.put("value", classValue);
+    }
+
+    public AnnotationBuilder parameter(String name, Object value) {
+        parameters.put(name, value);
+        return this;
+    }
+
     public void type(Enum<?> enumValue) {
         parameters.put("type", enumValue);
     }
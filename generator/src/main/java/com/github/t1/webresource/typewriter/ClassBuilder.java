@@ -1,25 +1,37 @@
 package com.github.t1.webresource.typewriter;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 public class ClassBuilder extends AnnotatableBuilder {
     final String pkg;
     final String type;
     final List<FieldBuilder> fields = new ArrayList<>();
     final List<MethodBuilder> methods = new ArrayList<>();
+    /** additional types used in method bodies, i.e. that need to be imported */
+    final Set<Class<?>> imports = new LinkedHashSet<>();
 
     public ClassBuilder(String pkg, String type) {
         this.pkg = pkg;
         this.type = type;
     }
 
+    public ClassBuilder using(Class<?> type) {
+        imports.add(type);
+        return this;
+    }
+
     public FieldBuilder field(Class<?> type, String string) {
         FieldBuilder builder = new FieldBuilder(type, string);
         fields.add(builder);
         return builder;
     }
 
+    public FieldBuilder field(TypeString type, String string) {
+        FieldBuilder builder = new FieldBuilder(type, string);
+        fields.add(builder);
+        return builder;
+    }
+
     public MethodBuilder method(TypeString returnType, String methodName) {
         MethodBuilder builder = new MethodBuilder(returnType, methodName);
         methods.add(builder);
@@ -31,4 +43,34 @@ public class ClassBuilder extends AnnotatableBuilder {
         methods.add(builder);
         return builder;
     }
+
+    /** A new method directly after the <code>previous</code> method */
+    public MethodBuilder methodAfter(MethodBuilder previous, TypeString returnType, String methodName) {
+        MethodBuilder builder = new MethodBuilder(returnType, methodName);
+        methods.add(methods.indexOf(previous) + 1, builder);
+        return builder;
+    }
+
+    public List<MethodBuilder> methods() {
+        return new ArrayList<>(methods);
+    }
+
+    /**
+     * Insert a new method before the <code>method</code> that takes over its name, annotations, and parameters
+     * (including their annotations), and rename the <code>method</code> to the <code>newName</code>. The body of the
+     * new method has to delegate to the renamed method.
+     */
+    public MethodBuilder wrap(MethodBuilder method, TypeString returnType, String newName) {
+        MethodBuilder wrapper = new MethodBuilder(returnType, method.name);
+        wrapper.annotations.addAll(method.annotations);
+        method.annotations.clear();
+        for (ParameterBuilder parameter : method.parameters) {
+            ParameterBuilder copy = wrapper.parameter(parameter.type, parameter.name);
+            copy.annotations.addAll(parameter.annotations);
+            parameter.annotations.clear();
+        }
+        method.name = newName;
+        methods.add(methods.indexOf(method), wrapper);
+        return wrapper;
+    }
 }
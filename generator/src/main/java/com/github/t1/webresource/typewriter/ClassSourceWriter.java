@@ -42,6 +42,8 @@ public class ClassSourceWriter {
             imports(type.id.imports);
         if (requiresKeyTypeImport(type))
             imports(type.key.imports);
+        if (requiresVersionTypeImport(type))
+            imports(type.version.imports);
         out.println("import java.util.*;");
         out.println();
         builderImports(builder.annotations);
@@ -50,10 +52,12 @@ public class ClassSourceWriter {
         out.println("import javax.ws.rs.*;");
         out.println("import javax.ws.rs.core.*;");
         out.println("import javax.ws.rs.core.Response.Status;");
-        if (type.version != null)
-            out.println("import javax.ws.rs.core.Response.ResponseBuilder;");
+        out.println("import javax.ws.rs.core.Response.ResponseBuilder;");
         out.println();
         builderImports(builder.fields);
+        for (Class<?> imported : builder.imports) {
+            out.println("import " + imported.getName() + ";");
+        }
     }
 
     private void builderImports(List<? extends Builder> builder) {
@@ -74,6 +78,12 @@ public class ClassSourceWriter {
         return type.key != null && !type.key.imports.isEmpty() && !type.key.imports.equals(type.id.imports);
     }
 
+    /** e.g. a <code>java.sql.Timestamp</code> */
+    private boolean requiresVersionTypeImport(WebResourceType type) {
+        return type.version != null && !type.version.imports.isEmpty() && !type.version.imports.equals(type.id.imports)
+                && !(requiresKeyTypeImport(type) && type.version.imports.equals(type.key.imports));
+    }
+
     private void annotations() {
         for (AnnotationBuilder annotation : builder.annotations) {
             out.println(annotation(annotation));
@@ -98,7 +108,10 @@ public class ClassSourceWriter {
                     line.append("\"");
                 if (value instanceof Enum)
                     line.append(value.getClass().getSimpleName()).append('.');
-                line.append(value);
+                if (value instanceof Class)
+                    line.append(((Class<?>) value).getSimpleName()).append(".class");
+                else
+                    line.append(value);
                 if (!isPrimitive(value))
                     line.append("\"");
             }
@@ -108,7 +121,8 @@ public class ClassSourceWriter {
     }
 
     private boolean isPrimitive(Object value) {
-        return value instanceof Integer || value instanceof Boolean || value instanceof Enum<?>;
+        return value instanceof Integer || value instanceof Boolean || value instanceof Enum<?>
+                || value instanceof Class<?>;
     }
 
     private boolean onlyValueParameter(AnnotationBuilder annotation) {
@@ -116,7 +130,14 @@ public class ClassSourceWriter {
     }
 
     private void fields() {
+        fields(true);
+        fields(false);
+    }
+
+    private void fields(boolean static_) {
         for (FieldBuilder field : builder.fields) {
+            if (field.static_ != static_)
+                continue;
             for (AnnotationBuilder annotation : field.annotations)
                 out.println(annotation(annotation));
             out.println(field(field));
@@ -127,9 +148,11 @@ public class ClassSourceWriter {
     private Object field(FieldBuilder field) {
         StringBuilder line = new StringBuilder();
         line.append(field.visibility).append(" ");
+        if (field.static_)
+            line.append("static ");
         if (field.final_)
             line.append("final ");
-        line.append(field.type.getSimpleName()).append(" ").append(field.name);
+        line.append(field.type.generic).append(" ").append(field.name);
         line.append(field.initialization);
         line.append(";");
         return line.toString();
@@ -155,7 +178,7 @@ public class ClassSourceWriter {
     private Object methodDeclaration(MethodBuilder method) {
         StringBuilder line = new StringBuilder();
         line.append(method.visibility).append(" ");
-        line.append(method.returnType.simple).append(" ").append(method.name).append("(");
+        line.append(method.returnType.generic).append(" ").append(method.name).append("(");
         boolean first = true;
         for (ParameterBuilder parameter : method.parameters) {
             if (first)
@@ -165,9 +188,9 @@ public class ClassSourceWriter {
             for (AnnotationBuilder annotation : parameter.annotations) {
                 line.append(annotation(annotation)).append(' ');
             }
-            line.append(parameter.type.simple);
-            if (parameter.uncollectedType != null)
-                line.append('<').append(parameter.uncollectedType).append('>');
+            if (parameter.final_)
+                line.append("final ");
+            line.append(parameter.type.generic);
             line.append(' ').append(parameter.name);
         }
         line.append(") {");
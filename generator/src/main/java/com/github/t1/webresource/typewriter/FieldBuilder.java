@@ -4,17 +4,28 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class FieldBuilder extends AnnotatableBuilder implements Builder {
-    final Class<?> type;
+    final TypeString type;
     final String name;
+    boolean static_;
     boolean final_;
     final String visibility = "private";
     String initialization = "";
     final List<Class<?>> types = new ArrayList<>();
 
     public FieldBuilder(Class<?> type, String name) {
+        this(new TypeString(type), name);
+        this.types.add(type);
+    }
+
+    /** The imports for a type given as a {@link TypeString} have to be added with {@link #using(Class)} */
+    public FieldBuilder(TypeString type, String name) {
         this.type = type;
         this.name = name;
-        this.types.add(type);
+    }
+
+    public FieldBuilder static_() {
+        this.static_ = true;
+        return this;
     }
 
     public FieldBuilder final_() {
@@ -8,7 +8,7 @@ import java.util.List;
 public class MethodBuilder extends AnnotatableBuilder {
 
     final TypeString returnType;
-    final String name;
+    String name;
     String visibility = "public";
     final List<ParameterBuilder> parameters = new ArrayList<>();
     final StringWriter body = new StringWriter();
@@ -34,6 +34,28 @@ public class MethodBuilder extends AnnotatableBuilder {
         return builder;
     }
 
+    /** Add parameters with the same types and names as the parameters of the <code>other</code> method */
+    public MethodBuilder parametersOf(MethodBuilder other) {
+        for (ParameterBuilder parameter : other.parameters)
+            parameter(parameter.type, parameter.name);
+        return this;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** The comma separated parameter names, e.g. to call this method with the same arguments */
+    public String arguments() {
+        StringBuilder out = new StringBuilder();
+        for (ParameterBuilder parameter : parameters) {
+            if (out.length() > 0)
+                out.append(", ");
+            out.append(parameter.name);
+        }
+        return out.toString();
+    }
+
     public PrintWriter body() {
         return new PrintWriter(body);
     }
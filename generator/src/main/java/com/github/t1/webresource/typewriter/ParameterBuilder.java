@@ -4,7 +4,7 @@ public class ParameterBuilder extends AnnotatableBuilder {
 
     final TypeString type;
     final String name;
-    String uncollectedType;
+    boolean final_;
 
     public ParameterBuilder(Class<?> type, String name) {
         this(new TypeString(type), name);
@@ -15,7 +15,8 @@ public class ParameterBuilder extends AnnotatableBuilder {
         this.name = name;
     }
 
-    public void generic(String uncollectedType) {
-        this.uncollectedType = uncollectedType;
+    public ParameterBuilder final_() {
+        this.final_ = true;
+        return this;
     }
 }
@@ -14,6 +14,17 @@ public class TypeString {
     private static final String TYPE = ID + "(\\." + ID + ")*";
     private static final Pattern TYPE_PATTERN = Pattern.compile("(" + TYPE + ")(<(" + TYPE + "(, " + TYPE + ")*)>)?");
     private static final List<String> COLLECTION_TYPES = Arrays.asList("Set", "List", "Collection");
+    private static final Map<String, String> BOXED_TYPES = new HashMap<>();
+    static {
+        BOXED_TYPES.put("boolean", "java.lang.Boolean");
+        BOXED_TYPES.put("byte", "java.lang.Byte");
+        BOXED_TYPES.put("char", "java.lang.Character");
+        BOXED_TYPES.put("short", "java.lang.Short");
+        BOXED_TYPES.put("int", "java.lang.Integer");
+        BOXED_TYPES.put("long", "java.lang.Long");
+        BOXED_TYPES.put("float", "java.lang.Float");
+        BOXED_TYPES.put("double", "java.lang.Double");
+    }
 
     private final Matcher matcher;
 
@@ -48,6 +59,12 @@ public class TypeString {
         addImports();
     }
 
+    /** The wrapper type for a primitive type, or this, if it's not primitive. */
+    public TypeString boxed() {
+        String boxed = BOXED_TYPES.get(raw);
+        return (boxed == null) ? this : new TypeString(boxed);
+    }
+
     private String rawType() {
         return matcher.group(1);
     }
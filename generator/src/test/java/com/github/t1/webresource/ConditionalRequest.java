@@ -0,0 +1,88 @@
+package com.github.t1.webresource;
+
+import static javax.ws.rs.core.HttpHeaders.*;
+
+import java.text.*;
+import java.util.*;
+
+import javax.ws.rs.core.*;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+
+/**
+ * A {@link Request} evaluating the conditional headers like a JAX-RS implementation does, i.e. with the HTTP dates
+ * having whole seconds only.
+ */
+class ConditionalRequest implements Request {
+    /** the date as it goes over the wire */
+    public static String httpDate(Date date) {
+        return format().format(date);
+    }
+
+    private static DateFormat format() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    private static Date parse(String httpDate) {
+        try {
+            return format().parse(httpDate);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("invalid http date " + httpDate, e);
+        }
+    }
+
+    private final HttpHeaders headers;
+
+    public ConditionalRequest(HttpHeaders headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    public String getMethod() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Variant selectVariant(List<Variant> variants) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResponseBuilder evaluatePreconditions(EntityTag eTag) {
+        String match = headers.getHeaderString(IF_MATCH);
+        if (match != null && !"*".equals(match) && !match.equals(quoted(eTag)))
+            return Response.status(Status.PRECONDITION_FAILED);
+        String noneMatch = headers.getHeaderString(IF_NONE_MATCH);
+        if (noneMatch != null && ("*".equals(noneMatch) || noneMatch.equals(quoted(eTag))))
+            return Response.notModified(eTag);
+        return null;
+    }
+
+    private String quoted(EntityTag eTag) {
+        return "\"" + eTag.getValue() + "\"";
+    }
+
+    @Override
+    public ResponseBuilder evaluatePreconditions(Date lastModified) {
+        String unmodifiedSince = headers.getHeaderString(IF_UNMODIFIED_SINCE);
+        if (unmodifiedSince != null && lastModified.getTime() > parse(unmodifiedSince).getTime())
+            return Response.status(Status.PRECONDITION_FAILED);
+        String modifiedSince = headers.getHeaderString(IF_MODIFIED_SINCE);
+        if (modifiedSince != null && lastModified.getTime() <= parse(modifiedSince).getTime())
+            return Response.notModified();
+        return null;
+    }
+
+    @Override
+    public ResponseBuilder evaluatePreconditions(Date lastModified, EntityTag eTag) {
+        ResponseBuilder result = evaluatePreconditions(eTag);
+        return (result != null) ? result : evaluatePreconditions(lastModified);
+    }
+
+    @Override
+    public ResponseBuilder evaluatePreconditions() {
+        return null;
+    }
+}
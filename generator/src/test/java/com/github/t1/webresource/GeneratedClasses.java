@@ -0,0 +1,97 @@
+package com.github.t1.webresource;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+
+import javax.tools.*;
+import javax.tools.JavaFileObject.Kind;
+
+/**
+ * Compiles generated sources in memory, so tests can call the generated code and not only compare its text. The
+ * compiled classes are loaded before the classes of the test class path, e.g. a {@link #entity(String...) test entity}
+ * with other fields than the {@link TestEntity}.
+ */
+class GeneratedClasses extends ClassLoader {
+    private static final String PACKAGE = "com.github.t1.webresource";
+
+    /** the source of a <code>TestEntity</code> with getters and setters for the fields, e.g. <code>long id</code> */
+    public static String entity(String... fields) {
+        StringBuilder out = new StringBuilder();
+        out.append("package ").append(PACKAGE).append(";\n");
+        out.append("public class TestEntity {\n");
+        for (String field : fields) {
+            String[] split = field.split(" ");
+            String type = split[0];
+            String name = split[1];
+            String upper = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            out.append("    private ").append(type).append(" ").append(name).append(";\n");
+            out.append("    public ").append(type).append(" get").append(upper).append("() { return ").append(name)
+                    .append("; }\n");
+            out.append("    public void set").append(upper).append("(").append(type).append(" value) { ")
+                    .append(name).append(" = value; }\n");
+        }
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private final Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+
+    public GeneratedClasses(String entity, String webResource) {
+        super(GeneratedClasses.class.getClassLoader());
+        compile(source("TestEntity", entity), source("TestEntityWebResource", webResource));
+    }
+
+    private JavaFileObject source(String simpleName, final String source) {
+        URI uri = URI.create("string:///" + PACKAGE.replace('.', '/') + "/" + simpleName + Kind.SOURCE.extension);
+        return new SimpleJavaFileObject(uri, Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+    }
+
+    private void compile(JavaFileObject... sources) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(
+                compiler.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind,
+                    FileObject sibling) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                classes.put(className, bytes);
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + kind.extension),
+                        kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytes;
+                    }
+                };
+            }
+        };
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = Arrays.asList("-proc:none", "-classpath", System.getProperty("java.class.path"));
+        if (!compiler.getTask(null, fileManager, diagnostics, options, null, Arrays.asList(sources)).call())
+            throw new AssertionError("generated code doesn't compile: " + diagnostics.getDiagnostics());
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        ByteArrayOutputStream bytes = classes.get(name);
+        if (bytes == null)
+            return super.loadClass(name, resolve);
+        Class<?> loaded = findLoadedClass(name);
+        if (loaded == null)
+            loaded = defineClass(name, bytes.toByteArray(), 0, bytes.size());
+        return loaded;
+    }
+
+    public Object newEntity() throws ReflectiveOperationException {
+        return loadClass(PACKAGE + ".TestEntity").newInstance();
+    }
+
+    public Object newWebResource() throws ReflectiveOperationException {
+        return loadClass(PACKAGE + ".TestEntityWebResource").newInstance();
+    }
+}
@@ -0,0 +1,499 @@
+package com.github.t1.webresource;
+
+import static com.github.t1.webresource.WebResourceFieldTest.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.*;
+
+import javax.annotation.processing.Messager;
+import javax.ejb.*;
+import javax.lang.model.element.*;
+import javax.persistence.*;
+import javax.ws.rs.core.*;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.github.t1.webresource.WebResourceWriterTest.WebResourceLiteral;
+
+/** Calls the generated code, compiled in memory, with a mocked entity manager */
+@RunWith(MockitoJUnitRunner.class)
+public class GeneratedWebResourceTest {
+    private static final Date MODIFIED = new Date(1400000000123L);
+    private static final Date SECOND_BEFORE = new Date(1399999999000L);
+
+    @Mock
+    TypeElement type;
+    @Mock
+    PackageElement pkg;
+    @Mock
+    Messager messager;
+    @Mock
+    HttpHeaders headers;
+
+    private final WebResourceLiteral webResource = new WebResourceLiteral(false);
+    private final List<Element> fields = new ArrayList<>();
+    // like the TestEntity, the id is nullable, so it can be generated
+    private final List<String> entityFields = new ArrayList<>(Arrays.asList("java.lang.Long id"));
+    private GeneratedClasses classes;
+
+    @Before
+    public void mockAnnotationProcessor() {
+        String packageName = "com.github.t1.webresource";
+        String typeName = "TestEntity";
+
+        when(type.getQualifiedName()).thenReturn(new NameMock(packageName + "." + typeName));
+        when(type.getEnclosingElement()).thenReturn(pkg);
+        when(type.getSimpleName()).thenReturn(new NameMock(typeName));
+
+        Element idField = mockField();
+        fields.add(idField);
+        mockFieldType(idField, "long");
+        doReturn(fields).when(type).getEnclosedElements();
+
+        when(pkg.getKind()).thenReturn(ElementKind.PACKAGE);
+        when(pkg.getQualifiedName()).thenReturn(new NameMock(packageName));
+
+        when(type.getAnnotation(WebResource.class)).thenReturn(webResource);
+    }
+
+    private void field(String fieldType, String name, Class<? extends Annotation> annotationType) {
+        Element field = mockField();
+        mockFieldType(field, fieldType, name, annotationType);
+        fields.add(field);
+        entityFields.add(fieldType + " " + name);
+    }
+
+    private void temporalField(String name, String temporalType) {
+        field("java.util.Date", name, Temporal.class);
+        Element field = fields.get(fields.size() - 1);
+        AnnotationMirror temporal = mockAnnotation(Temporal.class, "value", temporalType);
+        doReturn(Arrays.asList(temporal)).when(field).getAnnotationMirrors();
+    }
+
+    private void generate() {
+        String entity = GeneratedClasses.entity(entityFields.toArray(new String[entityFields.size()]));
+        classes = new GeneratedClasses(entity, new WebResourceWriter(messager, type).run());
+    }
+
+    private Object entity(long id) throws Exception {
+        Object entity = classes.newEntity();
+        entity.getClass().getMethod("setId", Long.class).invoke(entity, id);
+        return entity;
+    }
+
+    private Object entity(long id, Date modified) throws Exception {
+        Object entity = entity(id);
+        entity.getClass().getMethod("setModified", Date.class).invoke(entity, modified);
+        return entity;
+    }
+
+    private Object webResource(EntityManager em) throws Exception {
+        Object webResource = classes.newWebResource();
+        inject(webResource, "em", em);
+        return webResource;
+    }
+
+    private void inject(Object webResource, String fieldName, Object value) throws Exception {
+        java.lang.reflect.Field field = webResource.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(webResource, value);
+    }
+
+    /** an entity manager that finds the first entity, its timestamp, and all entities in every list */
+    private EntityManager entityManager(final Object... entities) throws Exception {
+        final Object timestamp = entities[0].getClass().getMethod("getModified").invoke(entities[0]);
+        EntityManager em = mock(EntityManager.class);
+        doReturn(entities[0]).when(em).find(entities[0].getClass(), 1L);
+        when(em.createQuery(anyString(), any(Class.class))).thenAnswer(new Answer<TypedQuery<?>>() {
+            @Override
+            public TypedQuery<?> answer(InvocationOnMock invocation) {
+                String jpql = (String) invocation.getArguments()[0];
+                Object single = jpql.startsWith("SELECT e.modified ") ? timestamp : (long) entities.length;
+                return query(single, Arrays.asList(entities));
+            }
+        });
+        doReturn(query(null, null)).when(em).createQuery(anyString());
+        return em;
+    }
+
+    private TypedQuery<?> query(final Object single, final List<?> list) {
+        return mock(TypedQuery.class, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                switch (invocation.getMethod().getName()) {
+                    case "getSingleResult":
+                        return single;
+                    case "getResultList":
+                        return list;
+                    case "executeUpdate":
+                        return 1;
+                }
+                Class<?> returnType = invocation.getMethod().getReturnType();
+                return returnType.isInstance(invocation.getMock()) ? invocation.getMock() : null;
+            }
+        });
+    }
+
+    private Response call(Object webResource, String methodName, Object... args) throws Exception {
+        for (Method method : webResource.getClass().getMethods())
+            if (method.getName().equals(methodName))
+                return (Response) method.invoke(webResource, args);
+        throw new AssertionError("no method " + methodName);
+    }
+
+    private Response get(Object webResource) throws Exception {
+        return call(webResource, "getTestEntity", 1L, null, new ConditionalRequest(headers), headers);
+    }
+
+    private Response head(Object webResource) throws Exception {
+        return call(webResource, "headTestEntity", 1L, new ConditionalRequest(headers), headers);
+    }
+
+    private Response deleteMinimal(Object webResource) throws Exception {
+        return call(webResource, "deleteTestEntity", 1L, "minimal", new ConditionalRequest(headers), headers);
+    }
+
+    private Response changes(Object webResource, Long after, UriBuilder next) throws Exception {
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getRequestUriBuilder()).thenReturn(next);
+        return call(webResource, "getTestEntityChanges", 0L, after, 0, uriInfo);
+    }
+
+    private List<?> entities(Response response) {
+        return (List<?>) ((GenericEntity<?>) response.getEntity()).getEntity();
+    }
+
+    private UriBuilder uriBuilder() {
+        return mock(UriBuilder.class, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                if ("build".equals(invocation.getMethod().getName()))
+                    return java.net.URI.create("/changes");
+                return invocation.getMock();
+            }
+        });
+    }
+
+    private Object timestamped() throws Exception {
+        field("java.util.Date", "modified", WebResourceTimestamp.class);
+        generate();
+        return webResource(entityManager(entity(1, MODIFIED)));
+    }
+
+    @Test
+    public void shouldContinueFullPageOfChangesAfterLastKey() throws Exception {
+        webResource.pageSize = 2;
+        field("java.util.Date", "modified", WebResourceTimestamp.class);
+        generate();
+        EntityManager em = entityManager(entity(1, SECOND_BEFORE), entity(2, MODIFIED), entity(3, MODIFIED));
+        UriBuilder next = uriBuilder();
+
+        Response response = changes(webResource(em), null, next);
+
+        assertEquals(2, entities(response).size());
+        verify(em).createQuery(startsWith("SELECT e FROM TestEntity e WHERE e.modified > :since "), any(Class.class));
+        verify(next).replaceQueryParam("after", 2L);
+        verify(next).replaceQueryParam("since", MODIFIED.getTime());
+    }
+
+    @Test
+    public void shouldStartAgainAfterPageOfChangesThatIsNotFull() throws Exception {
+        webResource.pageSize = 2;
+        field("java.util.Date", "modified", WebResourceTimestamp.class);
+        generate();
+        EntityManager em = entityManager(entity(3, MODIFIED));
+        UriBuilder next = uriBuilder();
+
+        Response response = changes(webResource(em), 2L, next);
+
+        assertEquals(1, entities(response).size());
+        verify(em).createQuery(startsWith("SELECT e FROM TestEntity e WHERE (e.modified > :since "), any(Class.class));
+        verify(next).replaceQueryParam("after");
+        verify(next, never()).replaceQueryParam(eq("after"), any());
+        verify(next, never()).replaceQueryParam("since", MODIFIED.getTime());
+    }
+
+    @Test
+    public void shouldConvertIsoDateForFilter() throws Exception {
+        temporalField("born", "DATE");
+        generate();
+        Object webResource = webResource(mock(EntityManager.class));
+        Method convert = webResource.getClass().getDeclaredMethod("convert", String.class, String.class);
+        convert.setAccessible(true);
+
+        Object born = convert.invoke(webResource, "born", "2014-05-13");
+
+        assertEquals(new GregorianCalendar(2014, Calendar.MAY, 13).getTime(), born);
+    }
+
+    @Test
+    public void shouldPatchIsoDateWithTemporalType() throws Exception {
+        temporalField("born", "DATE");
+        generate();
+        EntityManager em = mock(EntityManager.class);
+        Query update = (Query) query(null, null);
+        when(em.createQuery(anyString())).thenReturn(update);
+        MultivaluedMap<String, String> form = new MultivaluedHashMap<>();
+        form.putSingle("born", "2014-05-13");
+
+        Response response = call(webResource(em), "patchTestEntity", 1L, form);
+
+        assertEquals(204, response.getStatus());
+        verify(em).createQuery("UPDATE TestEntity e SET e.born = ?1 WHERE e.id = ?2");
+        Date born = new GregorianCalendar(2014, Calendar.MAY, 13).getTime();
+        verify(update).setParameter(1, born, TemporalType.DATE);
+    }
+
+    private Response patch(Object webResource, String name, String value) throws Exception {
+        MultivaluedMap<String, String> form = new MultivaluedHashMap<>();
+        form.putSingle(name, value);
+        if (entityFields.contains("java.sql.Timestamp version"))
+            return call(webResource, "patchTestEntity", 1L, form, headers);
+        return call(webResource, "patchTestEntity", 1L, form);
+    }
+
+    /** a version that can't be incremented in JPQL */
+    private Object timestampVersioned(java.sql.Timestamp version, EntityManager em) throws Exception {
+        field("java.sql.Timestamp", "version", Version.class);
+        field("java.lang.String", "name", Column.class);
+        generate();
+        Object entity = classes.newEntity();
+        entity.getClass().getMethod("setVersion", java.sql.Timestamp.class).invoke(entity, version);
+        doReturn(entity).when(em).find(entity.getClass(), 1L);
+        doReturn(query(version, null)).when(em).createQuery(anyString(), any(Class.class));
+        return entity;
+    }
+
+    @Test
+    public void shouldPatchLoadedEntityWithMatchingVersion() throws Exception {
+        java.sql.Timestamp version = new java.sql.Timestamp(MODIFIED.getTime());
+        EntityManager em = mock(EntityManager.class);
+        Object entity = timestampVersioned(version, em);
+        when(headers.getHeaderString(HttpHeaders.IF_MATCH)).thenReturn("\"" + version + "\"");
+
+        Response response = patch(webResource(em), "name", "patched");
+
+        assertEquals(204, response.getStatus());
+        assertEquals("patched", entity.getClass().getMethod("getName").invoke(entity));
+        verify(em).flush();
+        verify(em, never()).createQuery(anyString());
+    }
+
+    @Test
+    public void shouldNotPatchLoadedEntityWithOtherVersion() throws Exception {
+        java.sql.Timestamp version = new java.sql.Timestamp(MODIFIED.getTime());
+        EntityManager em = mock(EntityManager.class);
+        Object entity = timestampVersioned(version, em);
+        when(headers.getHeaderString(HttpHeaders.IF_MATCH)).thenReturn("\"" + SECOND_BEFORE.getTime() + "\"");
+
+        Response response = patch(webResource(em), "name", "patched");
+
+        assertEquals(412, response.getStatus());
+        assertNull(entity.getClass().getMethod("getName").invoke(entity));
+        verify(em, never()).flush();
+    }
+
+    @Test
+    public void shouldPatchBoolean() throws Exception {
+        field("java.lang.Boolean", "active", Column.class);
+        generate();
+        EntityManager em = mock(EntityManager.class);
+        Query update = (Query) query(null, null);
+        when(em.createQuery(anyString())).thenReturn(update);
+
+        assertEquals(204, patch(webResource(em), "active", "TRUE").getStatus());
+        verify(update).setParameter(1, true);
+    }
+
+    @Test
+    public void shouldNotPatchInvalidBoolean() throws Exception {
+        field("java.lang.Boolean", "active", Column.class);
+        generate();
+        EntityManager em = mock(EntityManager.class);
+
+        Response response = patch(webResource(em), "active", "yes");
+
+        assertEquals(400, response.getStatus());
+        assertEquals("invalid boolean [yes] for [active]", response.getEntity());
+        verify(em, never()).createQuery(anyString());
+    }
+
+    @Test
+    public void shouldPutBySecondaryKeyAndReturnOnlyTheNewVersion() throws Exception {
+        field("java.lang.String", "key", WebResourceKey.class);
+        field("java.lang.Long", "version", Version.class);
+        field("java.lang.String", "name", Column.class);
+        generate();
+        EntityManager em = mock(EntityManager.class);
+        Query update = (Query) query(null, null);
+        when(em.createQuery(anyString())).thenReturn(update);
+        Object entity = classes.newEntity();
+        entity.getClass().getMethod("setVersion", Long.class).invoke(entity, 3L);
+        entity.getClass().getMethod("setName", String.class).invoke(entity, "updated");
+
+        Response response = call(webResource(em), "putTestEntity", "k", entity, null, headers);
+
+        assertEquals(204, response.getStatus());
+        assertNull(response.getEntity());
+        assertEquals("4", response.getEntityTag().getValue());
+        verify(em).createQuery("UPDATE TestEntity e SET e.name = :name, e.version = e.version + 1 "
+                + "WHERE e.key = :key AND e.version = :expected");
+        verify(update).setParameter("expected", 3L);
+    }
+
+    @Test
+    public void shouldStreamBatchesAfterTheLastKeyWithoutCounting() throws Exception {
+        webResource.streaming = true;
+        webResource.batchSize = 2;
+        generate();
+        EntityManager em = mock(EntityManager.class);
+        Object first = entity(1), second = entity(2), third = entity(3);
+        Class<?> type = first.getClass();
+        TypedQuery<?> list = query(null, Arrays.asList(first, second));
+        TypedQuery<?> after = query(null, Arrays.asList(third));
+        doReturn(list).when(em).createQuery("SELECT e FROM TestEntity e ORDER BY e.id", type);
+        doReturn(after).when(em).createQuery("SELECT e FROM TestEntity e WHERE e.id > :after ORDER BY e.id", type);
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getQueryParameters()).thenReturn(new MultivaluedHashMap<String, String>());
+
+        Response response = call(webResource(em), "listTestEntity", null, uriInfo);
+
+        verify(em).createQuery("SELECT e FROM TestEntity e ORDER BY e.id", type);
+        verifyNoMoreInteractions(em); // the later batches are fetched while the response is written
+        List<Object> streamed = new ArrayList<>();
+        for (Object entity : (Collection<?>) ((GenericEntity<?>) response.getEntity()).getEntity())
+            streamed.add(entity);
+        assertEquals(Arrays.asList(first, second, third), streamed);
+        verify(em).createQuery("SELECT e FROM TestEntity e WHERE e.id > :after ORDER BY e.id", type);
+        verify(after).setParameter("after", 2L);
+        verifyNoMoreInteractions(em); // neither counted nor cleared
+    }
+
+    /** the primary and the replica are mocks, not two databases that replicate; both find the same entity */
+    private Object replicated(EntityManager primary, EntityManager replica) throws Exception {
+        webResource.readUnit = "replica";
+        field("java.lang.String", "name", Column.class);
+        generate();
+        Object entity = entity(1);
+        for (EntityManager em : Arrays.asList(primary, replica)) {
+            doReturn(entity).when(em).find(entity.getClass(), 1L);
+            doReturn(entity).when(em).merge(entity);
+            doReturn(query(1L, Arrays.asList(entity))).when(em).createQuery(anyString(), any(Class.class));
+            doReturn(query(null, null)).when(em).createQuery(anyString());
+        }
+        return entity;
+    }
+
+    private Object webResource(EntityManager primary, EntityManager replica) throws Exception {
+        Object webResource = webResource(primary);
+        inject(webResource, "replica", replica);
+        return webResource;
+    }
+
+    private Response list(Object webResource) throws Exception {
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getQueryParameters()).thenReturn(new MultivaluedHashMap<String, String>());
+        when(uriInfo.getRequestUriBuilder()).thenReturn(uriBuilder());
+        return call(webResource, "listTestEntity", 100, 0, null, null, false, uriInfo);
+    }
+
+    @Test
+    public void shouldReadFromReplica() throws Exception {
+        EntityManager primary = mock(EntityManager.class);
+        EntityManager replica = mock(EntityManager.class);
+        Object entity = replicated(primary, replica);
+        Object webResource = webResource(primary, replica);
+
+        assertEquals(200, call(webResource, "getTestEntity", 1L, null).getStatus());
+        assertEquals(200, call(webResource, "headTestEntity", 1L).getStatus());
+        assertEquals(200, list(webResource).getStatus());
+
+        verify(replica).find(entity.getClass(), 1L);
+        verify(replica).createQuery("SELECT COUNT(e) FROM TestEntity e WHERE e.id = :key", Long.class);
+        verify(replica).createQuery("SELECT e FROM TestEntity e ORDER BY e.id", entity.getClass());
+        verifyZeroInteractions(primary);
+    }
+
+    @Test
+    public void shouldWriteToPrimaryAndReadOwnWritesFromIt() throws Exception {
+        EntityManager primary = mock(EntityManager.class);
+        EntityManager replica = mock(EntityManager.class);
+        Object entity = replicated(primary, replica);
+        Object webResource = webResource(primary, replica);
+
+        assertEquals(200, call(webResource, "putTestEntity", 1L, entity).getStatus());
+        assertEquals(200, call(webResource, "getTestEntity", 1L, null).getStatus());
+        assertEquals(200, call(webResource, "headTestEntity", 1L).getStatus());
+        assertEquals(204, call(webResource, "deleteTestEntity", 1L, "minimal").getStatus());
+
+        verify(primary).merge(entity);
+        verify(primary).flush();
+        verify(primary).find(entity.getClass(), 1L);
+        verify(primary).createQuery("SELECT COUNT(e) FROM TestEntity e WHERE e.id = :key", Long.class);
+        verify(primary).createQuery("DELETE FROM TestEntity e WHERE e.id = :key");
+        verifyZeroInteractions(replica);
+    }
+
+    @Test
+    public void shouldBatchGetFromReplicaWithMissingKeysInOneHeader() throws Exception {
+        EntityManager primary = mock(EntityManager.class);
+        EntityManager replica = mock(EntityManager.class);
+        Object entity = replicated(primary, replica);
+        Object webResource = webResource(primary, replica);
+
+        Response response = call(webResource, "getTestEntityBatch", Arrays.asList(1L, 2L, 3L));
+
+        assertEquals(200, response.getStatus());
+        assertEquals(Arrays.asList(entity), entities(response));
+        assertEquals(Arrays.<Object> asList("2,3"), response.getHeaders().get("X-Missing-Keys"));
+        verifyZeroInteractions(primary);
+        Method method = webResource.getClass().getMethod("getTestEntityBatch", List.class);
+        assertEquals(TransactionAttributeType.SUPPORTS, method.getAnnotation(TransactionAttribute.class).value());
+    }
+
+    @Test
+    public void shouldNotBeModifiedSinceTheLastModifiedSentBack() throws Exception {
+        Object webResource = timestamped();
+        String lastModified = ConditionalRequest.httpDate(get(webResource).getLastModified());
+        when(headers.getHeaderString(HttpHeaders.IF_MODIFIED_SINCE)).thenReturn(lastModified);
+
+        assertEquals(304, get(webResource).getStatus());
+        assertEquals(304, head(webResource).getStatus());
+    }
+
+    @Test
+    public void shouldBeModifiedSinceAnOlderLastModified() throws Exception {
+        Object webResource = timestamped();
+        when(headers.getHeaderString(HttpHeaders.IF_MODIFIED_SINCE))
+                .thenReturn(ConditionalRequest.httpDate(SECOND_BEFORE));
+
+        assertEquals(200, get(webResource).getStatus());
+        assertEquals(200, head(webResource).getStatus());
+    }
+
+    @Test
+    public void shouldDeleteUnmodifiedSinceTheLastModifiedSentBack() throws Exception {
+        Object webResource = timestamped();
+        String lastModified = ConditionalRequest.httpDate(head(webResource).getLastModified());
+        when(headers.getHeaderString(HttpHeaders.IF_UNMODIFIED_SINCE)).thenReturn(lastModified);
+
+        assertEquals(204, deleteMinimal(webResource).getStatus());
+    }
+
+    @Test
+    public void shouldNotDeleteModifiedSinceAnOlderLastModified() throws Exception {
+        Object webResource = timestamped();
+        when(headers.getHeaderString(HttpHeaders.IF_UNMODIFIED_SINCE))
+                .thenReturn(ConditionalRequest.httpDate(SECOND_BEFORE));
+
+        assertEquals(412, deleteMinimal(webResource).getStatus());
+    }
+}
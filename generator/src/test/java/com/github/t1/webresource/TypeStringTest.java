@@ -24,6 +24,21 @@ public class TypeStringTest {
         assertEquals(emptyList(), type.imports);
     }
 
+    @Test
+    public void shouldBoxPrimitiveInt() {
+        TypeString type = new TypeString("int").boxed();
+
+        assertTrue(type.nullable);
+        assertEquals("Integer", type.simple);
+    }
+
+    @Test
+    public void shouldNotBoxString() {
+        TypeString type = new TypeString("java.lang.String");
+
+        assertSame(type, type.boxed());
+    }
+
     @Test
     public void shouldParseBoxedIntegerWithoutImport() {
         TypeString type = new TypeString("java.lang.Integer");
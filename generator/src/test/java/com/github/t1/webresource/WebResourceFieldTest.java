@@ -10,7 +10,12 @@ import java.util.*;
 import javax.lang.model.element.*;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeMirror;
+import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.Temporal;
+import javax.persistence.Transient;
 
 import org.hamcrest.CoreMatchers;
 import org.junit.*;
@@ -45,6 +50,42 @@ public class WebResourceFieldTest {
         when(declaredAnnotationType.toString()).thenReturn(annotationType.getName());
     }
 
+    static AnnotationMirror mockAnnotation(Class<?> annotationType, String name, Object value) {
+        AnnotationMirror annotationMirror = mock(AnnotationMirror.class);
+        DeclaredType declaredAnnotationType = mock(DeclaredType.class);
+        when(annotationMirror.getAnnotationType()).thenReturn(declaredAnnotationType);
+        when(declaredAnnotationType.toString()).thenReturn(annotationType.getName());
+        ExecutableElement element = mock(ExecutableElement.class);
+        when(element.getSimpleName()).thenReturn(new NameMock(name));
+        AnnotationValue annotationValue = mock(AnnotationValue.class);
+        when(annotationValue.getValue()).thenReturn(value);
+        doReturn(Collections.singletonMap(element, annotationValue)).when(annotationMirror).getElementValues();
+        return annotationMirror;
+    }
+
+    /** a collection of entities with a long id field */
+    static void mockEntityCollectionType(Element field, String fieldType, String fieldName, Class<?> annotationType,
+            String idName) {
+        mockFieldType(field, fieldType, fieldName, annotationType);
+        Element id = mockField();
+        mockFieldType(id, "long", idName, Id.class);
+        TypeElement element = mock(TypeElement.class);
+        doReturn(asList(id)).when(element).getEnclosedElements();
+        AnnotationMirror entity = mock(AnnotationMirror.class);
+        DeclaredType entityType = mock(DeclaredType.class);
+        when(entity.getAnnotationType()).thenReturn(entityType);
+        when(entityType.toString()).thenReturn(Entity.class.getName());
+        doReturn(asList(entity)).when(element).getAnnotationMirrors();
+        DeclaredType elementType = mock(DeclaredType.class);
+        when(elementType.asElement()).thenReturn(element);
+
+        DeclaredType collectionType = mock(DeclaredType.class);
+        when(collectionType.toString()).thenReturn(fieldType);
+        when(collectionType.asElement()).thenReturn(mock(TypeElement.class));
+        doReturn(asList(elementType)).when(collectionType).getTypeArguments();
+        when(field.asType()).thenReturn(collectionType);
+    }
+
     @Mock
     TypeElement type;
     Element field = mockField();
@@ -294,4 +335,140 @@ public class WebResourceFieldTest {
 
         findField();
     }
+
+    @Test
+    public void shouldFindPersistentFieldsWithoutStaticAndTransient() {
+        mockFieldType(field, "long");
+        Element staticField = mockField();
+        mockFieldType(staticField, "long", "serialVersionUID", Id.class);
+        when(staticField.getModifiers()).thenReturn(new HashSet<>(asList(Modifier.STATIC, Modifier.FINAL)));
+        fields.add(staticField);
+        Element transientField = mockField();
+        mockFieldType(transientField, "java.lang.String", "cached", Transient.class);
+        fields.add(transientField);
+
+        List<WebResourceField> persistent = WebResourceField.findPersistentFields(type);
+
+        assertEquals(1, persistent.size());
+        assertEquals("id", persistent.get(0).name);
+    }
+
+    @Test
+    public void shouldConvertPrimitiveFromString() {
+        mockFieldType(field, "int");
+
+        assertEquals("Integer.valueOf(value)", findField().fromString("value"));
+    }
+
+    @Test
+    public void shouldConvertBigDecimalFromString() {
+        mockFieldType(field, "java.math.BigDecimal");
+
+        assertEquals("new java.math.BigDecimal(value)", findField().fromString("value"));
+    }
+
+    @Test
+    public void shouldConvertTemporalDateFromIsoString() {
+        mockFieldType(field, "java.util.Date");
+        AnnotationMirror id = field.getAnnotationMirrors().get(0);
+        doReturn(asList(id, mockAnnotation(Temporal.class, "value", "DATE"))).when(field).getAnnotationMirrors();
+
+        assertEquals("DATE", findField().temporalType());
+        assertEquals("javax.xml.bind.DatatypeConverter.parseDate(value).getTime()", findField().fromString("value"));
+    }
+
+    @Test
+    public void shouldConvertCalendarFromIsoStringAsTimestampByDefault() {
+        mockFieldType(field, "java.util.Calendar");
+
+        assertEquals("TIMESTAMP", findField().temporalType());
+        assertEquals("javax.xml.bind.DatatypeConverter.parseDateTime(value)", findField().fromString("value"));
+    }
+
+    @Test
+    public void shouldConvertSqlTimeFromIsoString() {
+        mockFieldType(field, "java.sql.Time");
+
+        assertEquals("TIME", findField().temporalType());
+        assertEquals("new java.sql.Time(javax.xml.bind.DatatypeConverter.parseTime(value).getTimeInMillis())",
+                findField().fromString("value"));
+    }
+
+    @Test
+    public void shouldNotConvertCollectionFromString() {
+        mockFieldType(field, "java.util.List<java.lang.String>");
+
+        assertNull(findField().fromString("value"));
+    }
+
+    @Test
+    public void shouldBeBasic() {
+        mockFieldType(field, "java.lang.String");
+
+        assertTrue(findField().isBasic());
+    }
+
+    @Test
+    public void shouldNotBeBasicWithManyToOne() {
+        mockFieldType(field, "com.example.Category", "category", ManyToOne.class);
+
+        assertFalse(WebResourceField.findPersistentFields(type).get(0).isBasic());
+    }
+
+    @Test
+    public void shouldNotBeBasicCollection() {
+        mockFieldType(field, "java.util.Set<java.lang.String>");
+
+        assertFalse(findField().isBasic());
+    }
+
+    @Test
+    public void shouldBeRelationWithManyToOne() {
+        mockFieldType(field, "com.example.Category", "category", ManyToOne.class);
+
+        assertTrue(WebResourceField.findPersistentFields(type).get(0).isRelation());
+    }
+
+    @Test
+    public void shouldBeRelationForCollection() {
+        mockFieldType(field, "java.util.Set<java.lang.String>");
+
+        assertTrue(findField().isRelation());
+    }
+
+    @Test
+    public void shouldNotBeRelationForBasic() {
+        mockFieldType(field, "java.lang.String");
+
+        assertFalse(findField().isRelation());
+    }
+
+    @Test
+    public void shouldFindMappedBy() {
+        mockFieldType(field, "java.util.List<com.example.Item>", "items", OneToMany.class);
+        doReturn(asList(mockAnnotation(OneToMany.class, "mappedBy", "order"))).when(field).getAnnotationMirrors();
+
+        assertEquals("order", WebResourceField.findPersistentFields(type).get(0).mappedBy());
+    }
+
+    @Test
+    public void shouldNotFindMappedByWithoutOneToMany() {
+        mockFieldType(field, "java.util.List<java.lang.String>");
+
+        assertNull(findField().mappedBy());
+    }
+
+    @Test
+    public void shouldFindElementIdOfEntities() {
+        mockEntityCollectionType(field, "java.util.List<com.example.Item>", "items", OneToMany.class, "number");
+
+        assertEquals("number", WebResourceField.findPersistentFields(type).get(0).elementId());
+    }
+
+    @Test
+    public void shouldNotFindElementIdOfBasicElements() {
+        mockFieldType(field, "java.util.List<java.lang.String>");
+
+        assertNull(findField().elementId());
+    }
 }
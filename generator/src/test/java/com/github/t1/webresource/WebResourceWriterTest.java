@@ -11,7 +11,11 @@ import javax.annotation.processing.Messager;
 import javax.enterprise.util.AnnotationLiteral;
 import javax.lang.model.element.*;
 import javax.lang.model.type.DeclaredType;
+import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.tools.Diagnostic.Kind;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -21,9 +25,27 @@ import org.mockito.runners.MockitoJUnitRunner;
 @RunWith(MockitoJUnitRunner.class)
 public class WebResourceWriterTest {
     @SuppressWarnings("all")
-    private static class WebResourceLiteral extends AnnotationLiteral<WebResource> implements WebResource {
+    static class WebResourceLiteral extends AnnotationLiteral<WebResource> implements WebResource {
         private static final long serialVersionUID = 1L;
         private final boolean extended;
+        int pageSize = 100;
+        boolean streaming = false;
+        int batchSize = 100;
+        int fetchSize = 0;
+        int cacheSize = 0;
+        int countCacheSeconds = 10;
+        boolean async = false;
+        int asyncLimit = 100;
+        int asyncTimeout = 30;
+        int quota = 0;
+        int quotaSeconds = 1;
+        String quotaClientHeader = "";
+        int quotaMaximumClients = 100000;
+        int concurrencyLimit = 0;
+        String readUnit = "";
+        int readYourWritesSeconds = 5;
+        int changesRetentionSeconds = 3600;
+        int changesLagSeconds = 5;
 
         public WebResourceLiteral(boolean extended) {
             this.extended = extended;
@@ -33,6 +55,96 @@ public class WebResourceWriterTest {
         public boolean extended() {
             return extended;
         }
+
+        @Override
+        public int pageSize() {
+            return pageSize;
+        }
+
+        @Override
+        public boolean streaming() {
+            return streaming;
+        }
+
+        @Override
+        public int batchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public int fetchSize() {
+            return fetchSize;
+        }
+
+        @Override
+        public int cacheSize() {
+            return cacheSize;
+        }
+
+        @Override
+        public int countCacheSeconds() {
+            return countCacheSeconds;
+        }
+
+        @Override
+        public boolean async() {
+            return async;
+        }
+
+        @Override
+        public int asyncLimit() {
+            return asyncLimit;
+        }
+
+        @Override
+        public int asyncTimeout() {
+            return asyncTimeout;
+        }
+
+        @Override
+        public int quota() {
+            return quota;
+        }
+
+        @Override
+        public int quotaSeconds() {
+            return quotaSeconds;
+        }
+
+        @Override
+        public String quotaClientHeader() {
+            return quotaClientHeader;
+        }
+
+        @Override
+        public int quotaMaximumClients() {
+            return quotaMaximumClients;
+        }
+
+        @Override
+        public int concurrencyLimit() {
+            return concurrencyLimit;
+        }
+
+        @Override
+        public String readUnit() {
+            return readUnit;
+        }
+
+        @Override
+        public int readYourWritesSeconds() {
+            return readYourWritesSeconds;
+        }
+
+        @Override
+        public int changesRetentionSeconds() {
+            return changesRetentionSeconds;
+        }
+
+        @Override
+        public int changesLagSeconds() {
+            return changesLagSeconds;
+        }
     }
 
     @Mock
@@ -42,6 +154,7 @@ public class WebResourceWriterTest {
     @Mock
     Messager messager;
 
+    WebResourceLiteral webResource;
     Element idField;
     List<Element> fields = new ArrayList<>();
 
@@ -61,7 +174,8 @@ public class WebResourceWriterTest {
         when(pkg.getKind()).thenReturn(ElementKind.PACKAGE);
         when(pkg.getQualifiedName()).thenReturn(new NameMock(packageName));
 
-        when(type.getAnnotation(WebResource.class)).thenReturn(new WebResourceLiteral(extended));
+        webResource = new WebResourceLiteral(extended);
+        when(type.getAnnotation(WebResource.class)).thenReturn(webResource);
     }
 
     @Test
@@ -99,6 +213,168 @@ public class WebResourceWriterTest {
         }
     }
 
+    @Test
+    public void shouldGeneratePageSize() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.pageSize = 10;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("(@QueryParam(\"limit\") @DefaultValue(\"10\") int limit, "));
+    }
+
+    @Test
+    public void shouldGenerateFetchSize() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.fetchSize = 50;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("List<TestEntity> list = ReadOnly.query(query, 50).setFirstResult(offset)"));
+    }
+
+    @Test
+    public void shouldGenerateStreaming() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.streaming = true;
+        webResource.batchSize = 50;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        String expected = readReference("TestEntityWebResource-streaming.txt");
+        assertEquals(expected, generated);
+    }
+
+    @Test
+    public void shouldClearExtendedEntityManagerBeforeNextBatch() throws Exception {
+        mockAnnotationProcessor(true, "long");
+        webResource.streaming = true;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("                if (last != null)\n"
+                + "                    em.clear();\n"
+                + "                TypedQuery<TestEntity> query = listQuery("));
+    }
+
+    @Test
+    public void shouldGenerateCache() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.cacheSize = 500;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        String expected = readReference("TestEntityWebResource-cache.txt");
+        assertEquals(expected, generated);
+    }
+
+    @Test
+    public void shouldReadSubResourceThroughCache() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.cacheSize = 500;
+        Element subResourceField = mockField();
+        mockFieldType(subResourceField, "java.lang.String", "subresource", WebSubResource.class);
+        fields.add(subResourceField);
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("    public Response getTestEntitySubresource(@PathParam(\"id\") long id) {\n"
+                + "        log.debug(\"get subresource from testentity {}\", id);\n\n"
+                + "        TestEntity result = CACHE.get(id);\n"));
+    }
+
+    @Test
+    public void shouldNotCacheEntityWithRelations() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.cacheSize = 500;
+        Element relation = mockField();
+        mockFieldType(relation, "com.github.t1.webresource.Item", "item", ManyToOne.class);
+        fields.add(relation);
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertFalse(generated.contains("CACHE"));
+        verify(messager).printMessage(Kind.WARNING, "only entities without relations can be cached", type);
+    }
+
+    @Test
+    public void shouldGenerateUncachedCount() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.countCacheSeconds = 0;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertFalse(generated.contains("COUNTS"));
+        assertTrue(generated.contains("            response.header(\"X-Total-Count\", count(queryParams));\n"));
+    }
+
+    @Test
+    public void shouldGenerateAsync() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.async = true;
+        webResource.asyncLimit = 20;
+        webResource.asyncTimeout = 5;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        String expected = readReference("TestEntityWebResource-async.txt");
+        assertEquals(expected, generated);
+    }
+
+    @Test
+    public void shouldGenerateQuota() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.quota = 50;
+        webResource.quotaSeconds = 60;
+        webResource.quotaClientHeader = "X-Api-Key";
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        String expected = readReference("TestEntityWebResource-quota.txt");
+        assertEquals(expected, generated);
+    }
+
+    @Test
+    public void shouldGenerateQuotaMaximumClients() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.quota = 50;
+        webResource.quotaMaximumClients = 1000;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains(
+                "@RequestQuota(requests = 50, seconds = 1, maximumClients = 1000)\npublic class"));
+    }
+
+    @Test
+    public void shouldGenerateConcurrencyLimit() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.concurrencyLimit = 200;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("import com.github.t1.webresource.ConcurrencyLimitInterceptor;\n"));
+        assertTrue(generated.contains("@Stateless\n@ConcurrencyLimit(maximum = 200)\n"
+                + "@Interceptors(ConcurrencyLimitInterceptor.class)\npublic class"));
+    }
+
+    @Test
+    public void shouldLimitOnlySynchronousMethodsWhenAsync() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        webResource.async = true;
+        webResource.concurrencyLimit = 200;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("    @GET\n    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)\n"
+                + "    @ExcludeClassInterceptors\n    public void listTestEntity("));
+        assertTrue(generated.contains("    @Asynchronous\n"
+                + "    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)\n"
+                + "    @ExcludeClassInterceptors\n    public void listTestEntityAsync("));
+        assertTrue(generated.contains("    }\n\n    @TransactionAttribute(TransactionAttributeType.SUPPORTS)\n"
+                + "    public Response listTestEntitySync("));
+    }
+
     @Test
     public void shouldGenerateSecondaryKey() throws Exception {
         mockAnnotationProcessor(false, "long");
@@ -118,7 +394,8 @@ public class WebResourceWriterTest {
         Element version = mockField();
         mockFieldType(version, "java.lang.Long", "version", javax.persistence.Version.class);
 
-        doReturn(Arrays.asList(key, idField, version)).when(type).getEnclosedElements();
+        fields.add(0, key);
+        fields.add(version);
     }
 
     @Test
@@ -129,10 +406,12 @@ public class WebResourceWriterTest {
         DeclaredType declaredType = mock(DeclaredType.class);
         when(declaredType.toString()).thenReturn(Entity.class.getName());
         when(entity.getAnnotationType()).thenReturn(declaredType);
-        Map<String, AnnotationValue> map = new LinkedHashMap<>();
+        Map<ExecutableElement, AnnotationValue> map = new LinkedHashMap<>();
+        ExecutableElement nameElement = mock(ExecutableElement.class);
+        when(nameElement.getSimpleName()).thenReturn(new NameMock("name"));
         AnnotationValue name = mock(AnnotationValue.class);
-        when(name.toString()).thenReturn("TEST_ENTITY");
-        map.put("name", name);
+        when(name.getValue()).thenReturn("TEST_ENTITY");
+        map.put(nameElement, name);
         doReturn(map).when(entity).getElementValues();
 
         String generated = new WebResourceWriter(messager, type).run();
@@ -155,6 +434,72 @@ public class WebResourceWriterTest {
         assertEquals(expected, generated);
     }
 
+    @Test
+    public void shouldReadFromReplicaUnlessWrittenRecently() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        mockKeyAndVersion();
+        webResource.readUnit = "replica";
+        webResource.readYourWritesSeconds = 2;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        String expected = readReference("TestEntityWebResource-replica.txt");
+        assertEquals(expected, generated);
+    }
+
+    @Test
+    public void shouldGenerateChangeFeedForTimestamp() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        mockKeyAndVersion();
+        Element timestamp = mockField();
+        mockFieldType(timestamp, "java.util.Date", "modified", WebResourceTimestamp.class);
+        fields.add(timestamp);
+        webResource.changesRetentionSeconds = 600;
+        webResource.changesLagSeconds = 2;
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        String expected = readReference("TestEntityWebResource-changes.txt");
+        assertEquals(expected, generated);
+    }
+
+    @Test
+    public void shouldGenerateLastModifiedForTimestamp() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element timestamp = mockField();
+        mockFieldType(timestamp, "java.util.Date", "modified", WebResourceTimestamp.class);
+        fields.add(timestamp);
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        String expected = readReference("TestEntityWebResource-timestamp.txt");
+        assertEquals(expected, generated);
+    }
+
+    @Test
+    public void shouldEvaluateLastModifiedOfCollectionSubResource() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element timestamp = mockField();
+        mockFieldType(timestamp, "java.util.Date", "modified", WebResourceTimestamp.class);
+        fields.add(timestamp);
+        Element subResourceField = mockField();
+        mockFieldType(subResourceField, "java.util.List<java.lang.String>", "subresource", WebSubResource.class);
+        fields.add(subResourceField);
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("@QueryParam(\"count\") @DefaultValue(\"false\") boolean count, "
+                + "@Context UriInfo uriInfo, @Context Request request, @Context HttpHeaders headers) {\n"));
+        assertTrue(generated.contains(
+                "        ResponseBuilder conditional = evaluateLastModified(id, request, headers);\n"
+                + "        if (conditional != null) {\n"
+                + "            return conditional.build();\n"
+                + "        }\n"
+                + "        List<String> list = "));
+        assertTrue(generated.contains("        Date modified = findTimestamp(id);\n"
+                + "        return response.lastModified(modified).build();\n"));
+    }
+
     @Test
     public void shouldGenerateCollectionSubResource() throws Exception {
         mockAnnotationProcessor(false, "long");
@@ -168,4 +513,243 @@ public class WebResourceWriterTest {
         String expected = readReference("TestEntityWebResource-noversion-nokey-coll-subresource.txt");
         assertEquals(expected, generated);
     }
+
+    @Test
+    public void shouldOrderCollectionSubResourceOfEntitiesById() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element subResourceField = mockField();
+        mockEntityCollectionType(subResourceField, "java.util.List<com.example.Item>", "items",
+                WebSubResource.class, "number");
+        fields.add(subResourceField);
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("LIST_ITEMS = \"SELECT s FROM TestEntity e JOIN e.items s WHERE e.id = :key "
+                + "ORDER BY s.number\";"));
+    }
+
+    @Test
+    public void shouldGenerateVersionedCollectionSubResource() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element version = mockField();
+        mockFieldType(version, "java.lang.Long", "version", javax.persistence.Version.class);
+        Element subResourceField = mockField();
+        mockFieldType(subResourceField, "java.util.List<java.lang.String>", "subresource", WebSubResource.class);
+        doReturn(Arrays.asList(idField, version, subResourceField)).when(type).getEnclosedElements();
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("        Long version = findVersion(id);\n"
+                + "        if (version == null) {\n"
+                + "            return Response.status(Status.NOT_FOUND).build();\n"
+                + "        }\n"
+                + "        EntityTag eTag = new EntityTag(Objects.toString(version));\n"));
+        assertTrue(generated.contains(
+                "        List<String> list = ReadOnly.query(em.createQuery(LIST_SUBRESOURCE, String.class))"));
+        assertFalse(generated.contains("list.isEmpty() && !exists(id)"));
+        assertTrue(generated.contains("        return response.tag(eTag).build();\n"));
+    }
+
+    @Test
+    public void shouldAddToOwnedCollectionSubResourceWithoutLoading() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element subResourceField = mockField();
+        mockFieldType(subResourceField, "java.util.List<com.github.t1.webresource.Item>", "items",
+                WebSubResource.class);
+        AnnotationMirror subResource = subResourceField.getAnnotationMirrors().get(0);
+        AnnotationMirror oneToMany = mockAnnotation(OneToMany.class, "mappedBy", "order");
+        doReturn(Arrays.asList(subResource, oneToMany)).when(subResourceField).getAnnotationMirrors();
+        fields.add(subResourceField);
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("        if (!exists(id)) {\n"
+                + "            return Response.status(Status.NOT_FOUND).build();\n"
+                + "        }\n\n"
+                + "        items.setOrder(em.getReference(TestEntity.class, id));\n"
+                + "        items = em.merge(items);\n"
+                + "        em.flush();\n"));
+        assertFalse(generated.contains(".getItems().add(items);"));
+    }
+
+    private void mockOwnedItems() {
+        Element subResourceField = mockField();
+        mockEntityCollectionType(subResourceField, "java.util.List<com.github.t1.webresource.Item>", "items",
+                WebSubResource.class, "number");
+        AnnotationMirror subResource = subResourceField.getAnnotationMirrors().get(0);
+        AnnotationMirror oneToMany = mockAnnotation(OneToMany.class, "mappedBy", "order");
+        doReturn(Arrays.asList(subResource, oneToMany)).when(subResourceField).getAnnotationMirrors();
+        fields.add(subResourceField);
+    }
+
+    @Test
+    public void shouldIncrementVersionWhenAddingToOwnedCollectionSubResource() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element version = mockField();
+        mockFieldType(version, "long", "version", javax.persistence.Version.class);
+        fields.add(version);
+        Element timestamp = mockField();
+        mockFieldType(timestamp, "java.util.Date", "modified", WebResourceTimestamp.class);
+        fields.add(timestamp);
+        mockOwnedItems();
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("TOUCH_BY_KEY = "
+                + "\"UPDATE TestEntity e SET e.version = e.version + 1, e.modified = :now WHERE e.id = :key\";"));
+        assertTrue(generated.contains("        int touched = em.createQuery(TOUCH_BY_KEY).setParameter(\"key\", id)"
+                + ".setParameter(\"now\", new Date(), TemporalType.TIMESTAMP).executeUpdate();\n"
+                + "        if (touched == 0) {\n"
+                + "            return Response.status(Status.NOT_FOUND).build();\n"
+                + "        }\n"));
+    }
+
+    @Test
+    public void shouldOnlySetOwnerOfExistingElementWhenAddingToOwnedCollectionSubResource() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        mockOwnedItems();
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertFalse(generated.contains("TOUCH_BY_KEY"));
+        assertTrue(generated.contains("        if (!exists(id)) {\n"));
+        assertTrue(generated.contains(
+                "        Item existing = (items.getNumber() == 0) ? null : em.find(Item.class, items.getNumber());\n"
+                        + "        if (existing == null) {\n"
+                        + "            items.setOrder(em.getReference(TestEntity.class, id));\n"
+                        + "            items = em.merge(items);\n"
+                        + "        } else {\n"
+                        + "            existing.setOrder(em.getReference(TestEntity.class, id));\n"
+                        + "            items = existing;\n"
+                        + "        }\n"));
+    }
+
+    @Test
+    public void shouldLoadEntityWithVersionThatCanNotBeIncrementedWhenAddingToOwnedCollectionSubResource()
+            throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element version = mockField();
+        mockFieldType(version, "java.sql.Timestamp", "version", javax.persistence.Version.class);
+        fields.add(version);
+        mockOwnedItems();
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertFalse(generated.contains("TOUCH_BY_KEY"));
+        assertFalse(generated.contains("em.getReference(TestEntity.class, id)"));
+        assertTrue(generated.contains("        testentity.getItems().add(items);\n"));
+    }
+
+    @Test
+    public void shouldPatchLoadedEntityWithVersionThatCanNotBeIncremented() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element version = mockField();
+        mockFieldType(version, "java.sql.Timestamp", "version", javax.persistence.Version.class);
+        fields.add(version);
+        Element name = mockField();
+        mockFieldType(name, "java.lang.String", "name", javax.persistence.Column.class);
+        fields.add(name);
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertFalse(generated.contains("e.version = e.version + 1"));
+        assertTrue(generated.contains("        String expected = null;\n"));
+        assertTrue(generated.contains("            expected = EntityTag.valueOf(ifMatch).getValue();\n"));
+        assertTrue(generated.contains("        TestEntity testentity = em.find(TestEntity.class, id);\n"
+                + "        int updated = 0;\n"
+                + "        if (testentity != null && (expected == null "
+                + "|| expected.equals(Objects.toString(testentity.getVersion())))) {\n"
+                + "            for (Map.Entry<String, Object> value : values.entrySet()) {\n"
+                + "                switch (value.getKey()) {\n"
+                + "                case \"name\":\n"
+                + "                    testentity.setName((java.lang.String) value.getValue());\n"
+                + "                    break;\n"
+                + "                }\n"
+                + "            }\n"
+                + "            em.flush();\n"
+                + "            updated = 1;\n"
+                + "        }\n"));
+    }
+
+    @Test
+    public void shouldAddToElementCollectionSubResourceOfLoadedEntity() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element subResourceField = mockField();
+        mockFieldType(subResourceField, "java.util.Set<java.lang.String>", "tags", WebSubResource.class);
+        AnnotationMirror subResource = subResourceField.getAnnotationMirrors().get(0);
+        AnnotationMirror elementCollection = mockAnnotation(ElementCollection.class, "fetch", "LAZY");
+        doReturn(Arrays.asList(subResource, elementCollection)).when(subResourceField).getAnnotationMirrors();
+        fields.add(subResourceField);
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("        TestEntity testentity = em.find(TestEntity.class, id);\n"
+                + "        if (testentity == null) {\n"
+                + "            return Response.status(Status.NOT_FOUND).build();\n"
+                + "        }\n\n"
+                + "        testentity.getTags().add(tags);\n"
+                + "        em.flush();\n"));
+    }
+
+    @Test
+    public void shouldReplaceSetSubResourceElementsInPlace() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element subResourceField = mockField();
+        mockFieldType(subResourceField, "java.util.Set<java.lang.String>", "tags", WebSubResource.class);
+        fields.add(subResourceField);
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("        Set<String> current = testentity.getTags();\n"
+                + "        if (current == null || tags == null) {\n"
+                + "            testentity.setTags(tags);\n"
+                + "        } else {\n"
+                + "            current.retainAll(tags);\n"
+                + "            for (String element : tags) {\n"
+                + "                if (!current.contains(element)) {\n"
+                + "                    current.add(element);\n"
+                + "                }\n"
+                + "            }\n"
+                + "        }\n"
+                + "        em.flush();\n"));
+    }
+
+    @Test
+    public void shouldUpdateFlatEntityBySecondaryKeyWithOneStatement() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element key = mockField();
+        mockFieldType(key, "java.lang.String", "key", WebResourceKey.class);
+        Element version = mockField();
+        mockFieldType(version, "java.lang.Integer", "version", javax.persistence.Version.class);
+        Element name = mockField();
+        mockFieldType(name, "java.lang.String", "name", javax.persistence.Column.class);
+        doReturn(Arrays.asList(key, idField, version, name)).when(type).getEnclosedElements();
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("UPDATE_BY_KEY = \"UPDATE TestEntity e SET e.name = :name, "
+                + "e.version = e.version + 1 WHERE e.key = :key\";"));
+        assertTrue(generated.contains("        query.setParameter(\"name\", testentity.getName());\n"));
+        assertTrue(generated.contains("        Integer version = (expected == null) ? findVersion(key) "
+                + ": Integer.valueOf(expected + 1);\n"));
+        assertTrue(generated.contains("        return Response.noContent().tag(Objects.toString(version)).build();\n"));
+    }
+
+    @Test
+    public void shouldUpdateBySecondaryKeyWithPrimitiveVersion() throws Exception {
+        mockAnnotationProcessor(false, "long");
+        Element key = mockField();
+        mockFieldType(key, "java.lang.String", "key", WebResourceKey.class);
+        Element version = mockField();
+        mockFieldType(version, "long", "version", javax.persistence.Version.class);
+        doReturn(Arrays.asList(key, idField, version)).when(type).getEnclosedElements();
+
+        String generated = new WebResourceWriter(messager, type).run();
+
+        assertTrue(generated.contains("UPDATE_BY_KEY = \"UPDATE TestEntity e SET e.version = e.version + 1 "
+                + "WHERE e.key = :key\";"));
+        assertTrue(generated.contains("        Long expected = testentity.getVersion();\n"));
+        assertTrue(generated.contains("        Long version = (expected == null) ? findVersion(key) "
+                + ": Long.valueOf(expected + 1);\n"));
+    }
 }